@@ -0,0 +1,167 @@
+package com.ravi.apps.android.newsbytes.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import com.ravi.apps.android.newsbytes.data.NewsContract.NewsEntry;
+
+/**
+ * Checks the conflict handling of the compiled statement inserts, and times them against
+ * inserting row by row through SQLiteDatabase.insert, in rows per second.
+ */
+public class BulkInserterTest extends AndroidTestCase {
+
+    // Tag for logging messages.
+    private static final String LOG_TAG = BulkInserterTest.class.getSimpleName();
+
+    // Numbers of rows inserted by the benchmark runs.
+    private static final int[] BENCHMARK_ROW_COUNTS = {100, 1000, 10000};
+
+    // Section the stories are stored in.
+    private static final String SECTION = "world";
+
+    private Context mContext;
+    private NewsDbHelper mNewsDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new RenamingDelegatingContext(getContext(), "test_");
+        mContext.deleteDatabase(NewsDbHelper.DATABASE_NAME);
+        mNewsDbHelper = new NewsDbHelper(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mNewsDbHelper.close();
+        mContext.deleteDatabase(NewsDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testIgnoreKeepsStoredStories() {
+        SQLiteDatabase db = mNewsDbHelper.getWritableDatabase();
+        ContentValues[] stories = buildStories(10);
+        assertEquals(10, insertAll(db, stories, SQLiteDatabase.CONFLICT_IGNORE));
+
+        // Inserting the same stories again changes nothing.
+        assertEquals(0, insertAll(db, stories, SQLiteDatabase.CONFLICT_IGNORE));
+        assertEquals(10, DatabaseUtils.queryNumEntries(db, NewsEntry.TABLE_NAME));
+    }
+
+    public void testReplaceSwapsStoredStories() {
+        SQLiteDatabase db = mNewsDbHelper.getWritableDatabase();
+        ContentValues[] stories = buildStories(10);
+        assertEquals(10, insertAll(db, stories, SQLiteDatabase.CONFLICT_REPLACE));
+
+        stories[0].put(NewsEntry.COLUMN_HEADLINE, "Replaced");
+        assertEquals(10, insertAll(db, stories, SQLiteDatabase.CONFLICT_REPLACE));
+        assertEquals(10, DatabaseUtils.queryNumEntries(db, NewsEntry.TABLE_NAME));
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, NewsEntry.TABLE_NAME,
+                NewsEntry.COLUMN_HEADLINE + "=?", new String[]{"Replaced"}));
+
+        // The replaced stories are gone from the search too.
+        assertEquals(9, getSearchCount(db, "headline*"));
+        assertEquals(1, getSearchCount(db, "replaced*"));
+    }
+
+    public void testConstraintKeepsOnlyThatRowOut() {
+        SQLiteDatabase db = mNewsDbHelper.getWritableDatabase();
+        ContentValues[] stories = buildStories(10);
+        assertEquals(10, insertAll(db, stories, SQLiteDatabase.CONFLICT_NONE));
+
+        stories[5].put(NewsEntry.COLUMN_URI_STORY, "http://example.com/story/new");
+        assertEquals(1, insertAll(db, stories, SQLiteDatabase.CONFLICT_NONE));
+        assertEquals(11, DatabaseUtils.queryNumEntries(db, NewsEntry.TABLE_NAME));
+    }
+
+    public void testInsertRate() {
+        SQLiteDatabase db = mNewsDbHelper.getWritableDatabase();
+        for(int rowCount : BENCHMARK_ROW_COUNTS) {
+            ContentValues[] stories = buildStories(rowCount);
+
+            db.delete(NewsEntry.TABLE_NAME, null, null);
+            long startTime = SystemClock.elapsedRealtime();
+            db.beginTransaction();
+            try {
+                for(ContentValues story : stories) {
+                    db.insert(NewsEntry.TABLE_NAME, null, story);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            long insertMillis = SystemClock.elapsedRealtime() - startTime;
+            assertEquals(rowCount, DatabaseUtils.queryNumEntries(db, NewsEntry.TABLE_NAME));
+
+            db.delete(NewsEntry.TABLE_NAME, null, null);
+            startTime = SystemClock.elapsedRealtime();
+            assertEquals(rowCount, insertAll(db, stories, SQLiteDatabase.CONFLICT_NONE));
+            long compiledMillis = SystemClock.elapsedRealtime() - startTime;
+
+            Log.i(LOG_TAG, rowCount + " rows: insert " + getRate(rowCount, insertMillis) +
+                    " rows/s, compiled statement " + getRate(rowCount, compiledMillis) +
+                    " rows/s");
+        }
+    }
+
+    // Inserts the stories in a transaction through the bulk inserter, returning the number
+    // inserted.
+    private static int insertAll(SQLiteDatabase db, ContentValues[] stories,
+                                 int conflictAlgorithm) {
+        int insertCount = 0;
+        BulkInserter bulkInserter =
+                new BulkInserter(db, NewsEntry.TABLE_NAME, conflictAlgorithm);
+        db.beginTransaction();
+        try {
+            for(ContentValues story : stories) {
+                if(bulkInserter.insert(story) != -1) {
+                    insertCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            bulkInserter.close();
+            db.endTransaction();
+        }
+        return insertCount;
+    }
+
+    // Returns the number of stories matching the full-text match expression.
+    private static long getSearchCount(SQLiteDatabase db, String matchQuery) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " +
+                NewsDbHelper.FTS_TABLE_NAME + " WHERE " + NewsDbHelper.FTS_TABLE_NAME +
+                " MATCH ?", new String[]{matchQuery});
+    }
+
+    // Builds stories of the section the way the sync stores them.
+    private static ContentValues[] buildStories(int count) {
+        ContentValues[] stories = new ContentValues[count];
+        for(int i = 0; i < count; i++) {
+            ContentValues values = new ContentValues();
+            values.put(NewsEntry.COLUMN_HEADLINE, "Headline " + i);
+            values.put(NewsEntry.COLUMN_SUMMARY, "Summary of story " + i);
+            values.put(NewsEntry.COLUMN_URI_STORY, "http://example.com/story/" + i);
+            values.put(NewsEntry.COLUMN_AUTHOR, "By Author " + i);
+            values.put(NewsEntry.COLUMN_DATE, "2015-10-05T05:00:00-04:00");
+            values.put(NewsEntry.COLUMN_DATE_MILLIS, 1444035600000L + i);
+            values.put(NewsEntry.COLUMN_DATE_DISPLAY, "5 October, 2015");
+            values.put(NewsEntry.COLUMN_URI_THUMBNAIL, "http://example.com/thumbnail/" + i);
+            values.put(NewsEntry.COLUMN_URI_PHOTO, "http://example.com/photo/" + i);
+            values.put(NewsEntry.COLUMN_SECTION, SECTION);
+            values.put(NewsEntry.COLUMN_IS_FAVORITE, 0);
+            stories[i] = values;
+        }
+        return stories;
+    }
+
+    // Returns the number of rows inserted per second.
+    private static long getRate(int rowCount, long millis) {
+        return rowCount * 1000L / Math.max(1, millis);
+    }
+}
@@ -0,0 +1,158 @@
+package com.ravi.apps.android.newsbytes.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import com.ravi.apps.android.newsbytes.data.NewsContract.NewsEntry;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the headlines list query on its own and while a large sync batch is being written,
+ * checking that the query neither waits for the batch nor sees its rows before the commit.
+ */
+public class NewsDbHelperConcurrencyTest extends AndroidTestCase {
+
+    // Tag for logging messages.
+    private static final String LOG_TAG = NewsDbHelperConcurrencyTest.class.getSimpleName();
+
+    // Number of stories stored before the benchmark.
+    private static final int STORED_STORY_COUNT = 200;
+
+    // Number of stories written by the sync batch.
+    private static final int BATCH_STORY_COUNT = 5000;
+
+    // Number of timed list queries per run.
+    private static final int QUERY_COUNT = 50;
+
+    // Longest time the batch is held open waiting on the list queries, in seconds.
+    private static final int BATCH_TIMEOUT_SECONDS = 30;
+
+    // Section the stories are stored in.
+    private static final String SECTION = "world";
+
+    // Projection of the headlines list.
+    private static final String[] NEWS_PROJECTION = {
+            NewsEntry._ID,
+            NewsEntry.COLUMN_HEADLINE,
+            NewsEntry.COLUMN_URI_THUMBNAIL,
+            NewsEntry.COLUMN_THUMBNAIL_KEY,
+            NewsEntry.COLUMN_IS_FAVORITE
+    };
+
+    private Context mContext;
+    private NewsDbHelper mNewsDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new RenamingDelegatingContext(getContext(), "test_");
+        mContext.deleteDatabase(NewsDbHelper.DATABASE_NAME);
+        mNewsDbHelper = new NewsDbHelper(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mNewsDbHelper.close();
+        mContext.deleteDatabase(NewsDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testListQueryDuringSyncBatch() throws Exception {
+        final SQLiteDatabase db = mNewsDbHelper.getWritableDatabase();
+        assertTrue(db.isWriteAheadLoggingEnabled());
+
+        db.beginTransaction();
+        try {
+            insertStories(db, 0, STORED_STORY_COUNT);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        long[] idleLatencies = timeListQueries(db);
+
+        // Write the batch on another thread, holding it open until the queries are done.
+        final CountDownLatch batchStarted = new CountDownLatch(1);
+        final CountDownLatch queriesDone = new CountDownLatch(1);
+        Thread syncThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                db.beginTransactionNonExclusive();
+                try {
+                    insertStories(db, STORED_STORY_COUNT, BATCH_STORY_COUNT);
+                    batchStarted.countDown();
+                    queriesDone.await(BATCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    db.setTransactionSuccessful();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        });
+        syncThread.start();
+
+        assertTrue(batchStarted.await(BATCH_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        long[] busyLatencies = timeListQueries(db);
+        queriesDone.countDown();
+        syncThread.join();
+
+        Log.i(LOG_TAG, "List query idle: p50 " + percentile(idleLatencies, 50) + " ms, p95 "
+                + percentile(idleLatencies, 95) + " ms; during sync batch: p50 "
+                + percentile(busyLatencies, 50) + " ms, p95 "
+                + percentile(busyLatencies, 95) + " ms");
+    }
+
+    // Runs the headlines list query repeatedly, returning each latency in milliseconds.
+    // Fails if a query sees rows of the uncommitted batch, which means it waited for it.
+    private long[] timeListQueries(SQLiteDatabase db) {
+        long[] latencies = new long[QUERY_COUNT];
+        for(int i = 0; i < QUERY_COUNT; i++) {
+            long startTime = SystemClock.elapsedRealtime();
+            Cursor cursor = db.query(NewsEntry.TABLE_NAME,
+                    NEWS_PROJECTION,
+                    NewsEntry.COLUMN_IS_FAVORITE + "=? AND " + NewsEntry.COLUMN_SECTION + "=?",
+                    new String[]{Integer.toString(0), SECTION},
+                    null,
+                    null,
+                    NewsEntry.COLUMN_DATE_MILLIS + " DESC");
+            try {
+                assertEquals(STORED_STORY_COUNT, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+            latencies[i] = SystemClock.elapsedRealtime() - startTime;
+        }
+        return latencies;
+    }
+
+    // Inserts stories into the section, numbered from the first one.
+    private static void insertStories(SQLiteDatabase db, int first, int count) {
+        ContentValues values = new ContentValues();
+        for(int i = first; i < first + count; i++) {
+            values.put(NewsEntry.COLUMN_HEADLINE, "Headline " + i);
+            values.put(NewsEntry.COLUMN_URI_STORY, "http://example.com/story/" + i);
+            values.put(NewsEntry.COLUMN_URI_THUMBNAIL, "http://example.com/thumbnail/" + i);
+            values.put(NewsEntry.COLUMN_DATE_MILLIS, 1444035600000L + i);
+            values.put(NewsEntry.COLUMN_SECTION, SECTION);
+            values.put(NewsEntry.COLUMN_IS_FAVORITE, 0);
+            db.insert(NewsEntry.TABLE_NAME, null, values);
+        }
+    }
+
+    // Returns the percentile of the latencies.
+    private static long percentile(long[] latencies, int percentile) {
+        long[] sorted = Arrays.copyOf(latencies, latencies.length);
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+}
@@ -0,0 +1,438 @@
+package com.ravi.apps.android.newsbytes.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import com.ravi.apps.android.newsbytes.data.NewsContract.MetricsEntry;
+import com.ravi.apps.android.newsbytes.data.NewsContract.NewsEntry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Upgrades databases created with the earlier schemas and checks that they end up with the
+ * same schema as a fresh one, with the favorites preserved.
+ */
+public class NewsDbHelperMigrationTest extends AndroidTestCase {
+
+    // SQL statement for creating the news table of the first schema.
+    private static final String SQL_CREATE_V1_NEWS_TABLE =
+            "CREATE TABLE news (" +
+                    "_id INTEGER PRIMARY KEY, " +
+                    "headline TEXT NOT NULL, " +
+                    "summary TEXT, " +
+                    "uri_story TEXT, " +
+                    "author TEXT, " +
+                    "date TEXT, " +
+                    "uri_thumbnail TEXT, " +
+                    "thumbnail BLOB, " +
+                    "caption_thumbnail TEXT, " +
+                    "copyright_thumbnail TEXT, " +
+                    "uri_photo TEXT, " +
+                    "photo BLOB, " +
+                    "caption_photo TEXT, " +
+                    "copyright_photo TEXT, " +
+                    "is_favorite INTEGER NOT NULL);";
+
+    // SQL statement for creating the news table of the second schema, tagging the section.
+    private static final String SQL_CREATE_V2_NEWS_TABLE =
+            "CREATE TABLE news (" +
+                    "_id INTEGER PRIMARY KEY, " +
+                    "headline TEXT NOT NULL, " +
+                    "summary TEXT, " +
+                    "uri_story TEXT, " +
+                    "author TEXT, " +
+                    "date TEXT, " +
+                    "uri_thumbnail TEXT, " +
+                    "thumbnail BLOB, " +
+                    "caption_thumbnail TEXT, " +
+                    "copyright_thumbnail TEXT, " +
+                    "uri_photo TEXT, " +
+                    "photo BLOB, " +
+                    "caption_photo TEXT, " +
+                    "copyright_photo TEXT, " +
+                    "section TEXT, " +
+                    "is_favorite INTEGER NOT NULL);";
+
+    // SQL statement for creating the news table of the fourth schema, keeping the images in
+    // the image store.
+    private static final String SQL_CREATE_V4_NEWS_TABLE =
+            "CREATE TABLE news (" +
+                    "_id INTEGER PRIMARY KEY, " +
+                    "headline TEXT NOT NULL, " +
+                    "summary TEXT, " +
+                    "uri_story TEXT, " +
+                    "author TEXT, " +
+                    "date TEXT, " +
+                    "uri_thumbnail TEXT, " +
+                    "thumbnail_key TEXT, " +
+                    "thumbnail_size INTEGER, " +
+                    "thumbnail_width INTEGER, " +
+                    "thumbnail_height INTEGER, " +
+                    "caption_thumbnail TEXT, " +
+                    "copyright_thumbnail TEXT, " +
+                    "uri_photo TEXT, " +
+                    "photo_key TEXT, " +
+                    "photo_size INTEGER, " +
+                    "photo_width INTEGER, " +
+                    "photo_height INTEGER, " +
+                    "caption_photo TEXT, " +
+                    "copyright_photo TEXT, " +
+                    "section TEXT, " +
+                    "is_favorite INTEGER NOT NULL);";
+
+    // SQL statement for creating the metrics table, added by the third schema.
+    private static final String SQL_CREATE_V3_METRICS_TABLE =
+            "CREATE TABLE metrics (" +
+                    "_id INTEGER PRIMARY KEY, " +
+                    "run_id INTEGER NOT NULL, " +
+                    "phase TEXT NOT NULL, " +
+                    "duration_ms INTEGER NOT NULL, " +
+                    "bytes INTEGER NOT NULL DEFAULT 0);";
+
+    // Bytes standing in for a stored thumbnail.
+    private static final byte[] THUMBNAIL_BYTES = {1, 2, 3, 4, 5};
+
+    private Context mContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new RenamingDelegatingContext(getContext(), "test_");
+        mContext.deleteDatabase(NewsDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(NewsDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testUpgradeMatchesFreshSchema() {
+        createVersion1Database();
+        SQLiteDatabase upgradedDb = new NewsDbHelper(mContext).getWritableDatabase();
+        Set<String> upgradedColumns = getColumns(upgradedDb, NewsEntry.TABLE_NAME);
+        Set<String> upgradedMetricsColumns = getColumns(upgradedDb, MetricsEntry.TABLE_NAME);
+        Set<String> upgradedIndexes = getIndexes(upgradedDb);
+        upgradedDb.close();
+
+        mContext.deleteDatabase(NewsDbHelper.DATABASE_NAME);
+        SQLiteDatabase freshDb = new NewsDbHelper(mContext).getWritableDatabase();
+        assertEquals(getColumns(freshDb, NewsEntry.TABLE_NAME), upgradedColumns);
+        assertEquals(getColumns(freshDb, MetricsEntry.TABLE_NAME), upgradedMetricsColumns);
+        assertEquals(getIndexes(freshDb), upgradedIndexes);
+        freshDb.close();
+
+        assertTrue(upgradedIndexes.contains(NewsDbHelper.INDEX_FAVORITE_DATE));
+        assertTrue(upgradedIndexes.contains(NewsDbHelper.INDEX_SECTION_DATE));
+        assertTrue(upgradedIndexes.contains(NewsDbHelper.INDEX_STORY));
+    }
+
+    public void testUpgradeKeepsFavorites() {
+        createVersion1Database();
+        SQLiteDatabase db = new NewsDbHelper(mContext).getWritableDatabase();
+
+        Cursor cursor = db.query(NewsEntry.TABLE_NAME,
+                new String[]{NewsEntry.COLUMN_HEADLINE, NewsEntry.COLUMN_THUMBNAIL_KEY,
+                        NewsEntry.COLUMN_THUMBNAIL_SIZE, NewsEntry.COLUMN_PHOTO_KEY,
+                        NewsEntry.COLUMN_SECTION, NewsEntry.COLUMN_URI_STORY,
+                        NewsEntry.COLUMN_DATE_MILLIS, NewsEntry.COLUMN_DATE_DISPLAY},
+                NewsEntry.COLUMN_IS_FAVORITE + "=1", null, null, null, null);
+        try {
+            // The repeated favorite is dropped.
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Favorite", cursor.getString(0));
+            assertFalse(cursor.isNull(1));
+            assertTrue(new ImageStore(mContext).getFile(cursor.getString(1)).exists());
+            assertEquals(THUMBNAIL_BYTES.length, cursor.getInt(2));
+            assertTrue(cursor.isNull(3));
+            assertEquals(NewsEntry.SECTION_FAVORITES, cursor.getString(4));
+
+            // The favorite is normalized the way the sync does it.
+            assertEquals("http://example.com/favorite", cursor.getString(5));
+            assertEquals(1444035600000L, cursor.getLong(6));
+            assertNotNull(cursor.getString(7));
+        } finally {
+            cursor.close();
+        }
+
+        // Synced stories had no section to be listed under, they're fetched again instead.
+        assertEquals(0, getCount(db, NewsEntry.TABLE_NAME, NewsEntry.COLUMN_IS_FAVORITE + "=0"));
+        db.close();
+    }
+
+    public void testFavoriteStoryIsUnique() {
+        SQLiteDatabase db = new NewsDbHelper(mContext).getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(NewsEntry.COLUMN_HEADLINE, "Favorite");
+        values.put(NewsEntry.COLUMN_URI_STORY, "http://example.com/favorite");
+        values.put(NewsEntry.COLUMN_SECTION, NewsEntry.SECTION_FAVORITES);
+        values.put(NewsEntry.COLUMN_IS_FAVORITE, 1);
+        assertTrue(db.insert(NewsEntry.TABLE_NAME, null, values) > 0);
+        assertEquals(-1, db.insert(NewsEntry.TABLE_NAME, null, values));
+
+        // The same story may still be synced into a section.
+        values.put(NewsEntry.COLUMN_SECTION, "world");
+        values.put(NewsEntry.COLUMN_IS_FAVORITE, 0);
+        assertTrue(db.insert(NewsEntry.TABLE_NAME, null, values) > 0);
+        db.close();
+    }
+
+    public void testUpgradeIndexesStoriesForSearch() {
+        createVersion1Database();
+        SQLiteDatabase db = new NewsDbHelper(mContext).getWritableDatabase();
+        assertEquals(0, getSearchCount(db, NewsProvider.buildMatchQuery("Sync")));
+        assertEquals(1, getSearchCount(db, NewsProvider.buildMatchQuery("favorite")));
+
+        // The search follows the stories as they change.
+        ContentValues values = new ContentValues();
+        values.put(NewsEntry.COLUMN_HEADLINE, "Renamed");
+        db.update(NewsEntry.TABLE_NAME, values, NewsEntry.COLUMN_IS_FAVORITE + "=1", null);
+        assertEquals(0, getSearchCount(db, NewsProvider.buildMatchQuery("favorite")));
+        assertEquals(1, getSearchCount(db, NewsProvider.buildMatchQuery("renamed")));
+
+        db.delete(NewsEntry.TABLE_NAME, NewsEntry.COLUMN_IS_FAVORITE + "=1", null);
+        assertEquals(0, getSearchCount(db, NewsProvider.buildMatchQuery("renamed")));
+        db.close();
+    }
+
+    public void testUpgradeMarksFavoritesMissingImages() {
+        createVersion1Database();
+        SQLiteDatabase v1Db = mContext.openOrCreateDatabase(NewsDbHelper.DATABASE_NAME, 0, null);
+        ContentValues values = new ContentValues();
+        values.put("headline", "Favorite without photo");
+        values.put("uri_story", "http://example.com/favorite/photo");
+        values.put("uri_photo", "http://example.com/photo");
+        values.put("is_favorite", 1);
+        v1Db.insert("news", null, values);
+        v1Db.close();
+
+        SQLiteDatabase db = new NewsDbHelper(mContext).getWritableDatabase();
+        Cursor cursor = db.query(NewsEntry.TABLE_NAME,
+                new String[]{NewsEntry.COLUMN_HEADLINE},
+                NewsEntry.COLUMN_MEDIA_PENDING + "=1", null, null, null, null);
+        try {
+            // Only the favorite whose photo wasn't stored is left to download.
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Favorite without photo", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+        db.close();
+    }
+
+    public void testListQueriesUseIndexes() {
+        SQLiteDatabase db = new NewsDbHelper(mContext).getWritableDatabase();
+        assertTrue(getQueryPlan(db,
+                "SELECT _id FROM news WHERE is_favorite=1 ORDER BY date_millis DESC")
+                .contains(NewsDbHelper.INDEX_FAVORITE_DATE));
+        assertTrue(getQueryPlan(db,
+                "SELECT _id FROM news WHERE is_favorite=0 AND section='world'" +
+                        " ORDER BY date_millis DESC")
+                .contains(NewsDbHelper.INDEX_SECTION_DATE));
+
+        // A page after the first starts right at its key, instead of scanning up to it.
+        assertTrue(getQueryPlan(db,
+                "SELECT _id FROM news WHERE is_favorite=1 AND date_millis<=5" +
+                        " AND (date_millis<5 OR _id<3) ORDER BY date_millis DESC, _id DESC" +
+                        " LIMIT 30")
+                .contains("date_millis<?"));
+        db.close();
+    }
+
+    public void testUpgradeFromVersion2KeepsFavorites() {
+        SQLiteDatabase v2Db = createDatabase(2, SQL_CREATE_V2_NEWS_TABLE);
+        insertVersion2Stories(v2Db);
+        v2Db.close();
+
+        SQLiteDatabase db = new NewsDbHelper(mContext).getWritableDatabase();
+        assertFavoriteThumbnailStored(db);
+        assertEquals(1, getCount(db, NewsEntry.TABLE_NAME,
+                NewsEntry.COLUMN_IS_FAVORITE + "=0 AND " + NewsEntry.COLUMN_SECTION + "='world'"));
+        db.close();
+    }
+
+    public void testUpgradeFromVersion3KeepsFavoritesAndMetrics() {
+        SQLiteDatabase v3Db = createDatabase(3, SQL_CREATE_V2_NEWS_TABLE,
+                SQL_CREATE_V3_METRICS_TABLE);
+        insertVersion2Stories(v3Db);
+        ContentValues values = new ContentValues();
+        values.put("run_id", 1);
+        values.put("phase", "fetch");
+        values.put("duration_ms", 120);
+        v3Db.insert("metrics", null, values);
+        v3Db.close();
+
+        SQLiteDatabase db = new NewsDbHelper(mContext).getWritableDatabase();
+        assertFavoriteThumbnailStored(db);
+        assertEquals(1, getCount(db, MetricsEntry.TABLE_NAME, null));
+        db.close();
+    }
+
+    public void testUpgradeFromVersion4KeepsStoredImages() throws Exception {
+        String thumbnailKey = new ImageStore(mContext).put(THUMBNAIL_BYTES);
+        SQLiteDatabase v4Db = createDatabase(4, SQL_CREATE_V4_NEWS_TABLE,
+                SQL_CREATE_V3_METRICS_TABLE);
+        ContentValues values = new ContentValues();
+        values.put("headline", "Favorite");
+        values.put("uri_story", "http://example.com/favorite");
+        values.put("uri_thumbnail", "http://example.com/thumbnail");
+        values.put("thumbnail_key", thumbnailKey);
+        values.put("thumbnail_size", THUMBNAIL_BYTES.length);
+        values.put("is_favorite", 1);
+        v4Db.insert("news", null, values);
+        v4Db.close();
+
+        SQLiteDatabase db = new NewsDbHelper(mContext).getWritableDatabase();
+        assertFavoriteThumbnailStored(db);
+
+        // The thumbnail is already stored, so there's nothing left to download.
+        assertEquals(1, getCount(db, NewsEntry.TABLE_NAME,
+                NewsEntry.COLUMN_THUMBNAIL_KEY + "='" + thumbnailKey + "' AND " +
+                        NewsEntry.COLUMN_MEDIA_PENDING + "=0"));
+        db.close();
+    }
+
+    // Creates a database with the first schema, holding a synced story and a repeated favorite.
+    private void createVersion1Database() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(NewsDbHelper.DATABASE_NAME, 0, null);
+        db.execSQL(SQL_CREATE_V1_NEWS_TABLE);
+
+        ContentValues values = new ContentValues();
+        values.put("headline", "Synced");
+        values.put("uri_story", "http:\\/\\/example.com\\/synced");
+        values.put("date", "2015-10-05T05:00:00-04:00");
+        values.put("is_favorite", 0);
+        db.insert("news", null, values);
+
+        values = new ContentValues();
+        values.put("headline", "Favorite");
+        values.put("uri_story", "http:\\/\\/example.com\\/favorite");
+        values.put("date", "2015-10-05T05:00:00-04:00");
+        values.put("thumbnail", THUMBNAIL_BYTES);
+        values.put("is_favorite", 1);
+        db.insert("news", null, values);
+        db.insert("news", null, values);
+
+        db.setVersion(1);
+        db.close();
+    }
+
+    // Creates a database of the version with the statements given.
+    private SQLiteDatabase createDatabase(int version, String... statements) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(NewsDbHelper.DATABASE_NAME, 0, null);
+        for(String statement : statements) {
+            db.execSQL(statement);
+        }
+        db.setVersion(version);
+        return db;
+    }
+
+    // Inserts a story synced into a section and a favorite with its thumbnail bytes, the way
+    // the second and third schemas stored them.
+    private static void insertVersion2Stories(SQLiteDatabase db) {
+        ContentValues values = new ContentValues();
+        values.put("headline", "Synced");
+        values.put("uri_story", "http://example.com/synced");
+        values.put("date", "2015-10-05T05:00:00-04:00");
+        values.put("section", "world");
+        values.put("is_favorite", 0);
+        db.insert("news", null, values);
+
+        values = new ContentValues();
+        values.put("headline", "Favorite");
+        values.put("uri_story", "http://example.com/favorite");
+        values.put("thumbnail", THUMBNAIL_BYTES);
+        values.put("is_favorite", 1);
+        db.insert("news", null, values);
+    }
+
+    // Checks the favorite is kept with its thumbnail moved into the image store.
+    private void assertFavoriteThumbnailStored(SQLiteDatabase db) {
+        Cursor cursor = db.query(NewsEntry.TABLE_NAME,
+                new String[]{NewsEntry.COLUMN_HEADLINE, NewsEntry.COLUMN_THUMBNAIL_KEY,
+                        NewsEntry.COLUMN_SECTION},
+                NewsEntry.COLUMN_IS_FAVORITE + "=1", null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Favorite", cursor.getString(0));
+            assertTrue(new ImageStore(mContext).getFile(cursor.getString(1)).exists());
+            assertEquals(NewsEntry.SECTION_FAVORITES, cursor.getString(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Returns the number of rows of the table matching the selection.
+    private static int getCount(SQLiteDatabase db, String table, String selection) {
+        Cursor cursor = db.query(table, new String[]{"_id"}, selection, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Returns the column names of the table.
+    private static Set<String> getColumns(SQLiteDatabase db, String table) {
+        Set<String> columns = new HashSet<String>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while(cursor.moveToNext()) {
+                columns.add(cursor.getString(nameIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+
+    // Returns the names of the indexes created by the schema.
+    private static Set<String> getIndexes(SQLiteDatabase db) {
+        Set<String> indexes = new HashSet<String>();
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type='index'" +
+                " AND sql IS NOT NULL", null);
+        try {
+            while(cursor.moveToNext()) {
+                indexes.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return indexes;
+    }
+
+    // Returns the number of stories matching the full-text match expression.
+    private static int getSearchCount(SQLiteDatabase db, String matchQuery) {
+        Cursor cursor = db.rawQuery("SELECT docid FROM " + NewsDbHelper.FTS_TABLE_NAME +
+                " WHERE " + NewsDbHelper.FTS_TABLE_NAME + " MATCH ?", new String[]{matchQuery});
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Returns the query plan of the statement as a single string.
+    private static String getQueryPlan(SQLiteDatabase db, String sql) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while(cursor.moveToNext()) {
+                plan.append(cursor.getString(detailIndex)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+}
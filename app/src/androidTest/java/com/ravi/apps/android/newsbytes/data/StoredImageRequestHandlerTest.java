@@ -0,0 +1,193 @@
+package com.ravi.apps.android.newsbytes.data;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.widget.ImageView;
+
+import com.ravi.apps.android.newsbytes.data.NewsContract.ImageEntry;
+import com.squareup.picasso.Callback;
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.Request;
+import com.squareup.picasso.RequestHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks the stored images are subsampled while decoded, down to about the size they're shown
+ * at, and that binding rows while scrolling decodes each image once, never on the main thread.
+ */
+public class StoredImageRequestHandlerTest extends AndroidTestCase {
+
+    // Tag for logging messages.
+    private static final String LOG_TAG = StoredImageRequestHandlerTest.class.getSimpleName();
+
+    // Size of the stored images.
+    private static final int IMAGE_WIDTH = 1600;
+    private static final int IMAGE_HEIGHT = 1200;
+
+    // Size of the thumbnail views.
+    private static final int THUMBNAIL_WIDTH = 120;
+    private static final int THUMBNAIL_HEIGHT = 90;
+
+    // Rows bound by the scroll, and the views recycled among them.
+    private static final int ROW_COUNT = 60;
+    private static final int VIEW_COUNT = 8;
+
+    private ImageStore mImageStore;
+    private String[] mKeys;
+    private ThreadRecordingHandler mHandler;
+    private Picasso mPicasso;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mImageStore = new ImageStore(getContext());
+        int[] colors = {Color.RED, Color.GREEN, Color.BLUE, Color.YELLOW, Color.CYAN};
+        mKeys = new String[colors.length];
+        for(int i = 0; i < colors.length; i++) {
+            mKeys[i] = mImageStore.put(buildImage(colors[i]));
+        }
+
+        mHandler = new ThreadRecordingHandler(getContext());
+        mPicasso = new Picasso.Builder(getContext())
+                .addRequestHandler(mHandler)
+                .build();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPicasso.shutdown();
+        for(String key : mKeys) {
+            mImageStore.delete(key);
+        }
+        super.tearDown();
+    }
+
+    public void testSampleSizeCoversTarget() {
+        assertEquals(8, StoredImageRequestHandler.getSampleSize(1600, 1200, 200, 150));
+        assertEquals(4, StoredImageRequestHandler.getSampleSize(1600, 1200, 200, 200));
+        assertEquals(1, StoredImageRequestHandler.getSampleSize(100, 100, 200, 200));
+        assertEquals(1, StoredImageRequestHandler.getSampleSize(1600, 1200, 0, 0));
+    }
+
+    public void testDecodesToTargetSize() throws Exception {
+        Bitmap bitmap = mPicasso.load(ImageEntry.buildImageUri(mKeys[0]))
+                .resize(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT)
+                .get();
+        assertEquals(THUMBNAIL_WIDTH, bitmap.getWidth());
+        assertEquals(THUMBNAIL_HEIGHT, bitmap.getHeight());
+        assertEquals(1, mHandler.getDecodeCount());
+    }
+
+    public void testDecodeIsSubsampled() throws Exception {
+        // The image is read at an eighth of its size, the nearest still covering the target.
+        Request request = new Request.Builder(ImageEntry.buildImageUri(mKeys[0]))
+                .resize(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT)
+                .build();
+        RequestHandler.Result result = mHandler.load(request, 0);
+        assertEquals(IMAGE_WIDTH / 8, result.getBitmap().getWidth());
+        assertEquals(IMAGE_HEIGHT / 8, result.getBitmap().getHeight());
+    }
+
+    public void testScrollDecodesOffMainThread() throws Exception {
+        // Bind the rows on the main thread, recycling the views as a list does, and wait for
+        // the thumbnails of the rows left on screen.
+        final CountDownLatch shownLatch = new CountDownLatch(VIEW_COUNT);
+        final long[] bindMillis = new long[1];
+
+        // Held here, as Picasso only keeps weak references to the views.
+        final ImageView[] views = new ImageView[VIEW_COUNT];
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                for(int i = 0; i < VIEW_COUNT; i++) {
+                    views[i] = new ImageView(getContext());
+                }
+
+                long startTime = SystemClock.elapsedRealtime();
+                for(int row = 0; row < ROW_COUNT; row++) {
+                    Callback callback = row < ROW_COUNT - VIEW_COUNT ? null : new Callback() {
+                        @Override
+                        public void onSuccess() {
+                            shownLatch.countDown();
+                        }
+
+                        @Override
+                        public void onError() {
+                        }
+                    };
+                    mPicasso.load(ImageEntry.buildImageUri(mKeys[row % mKeys.length]))
+                            .resize(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT)
+                            .into(views[row % VIEW_COUNT], callback);
+                }
+                bindMillis[0] = SystemClock.elapsedRealtime() - startTime;
+            }
+        });
+        assertTrue(shownLatch.await(10, TimeUnit.SECONDS));
+
+        // The rows left on screen show their thumbnails at the size of the views.
+        for(ImageView view : views) {
+            Drawable drawable = view.getDrawable();
+            assertTrue(drawable instanceof BitmapDrawable);
+            Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+            assertEquals(THUMBNAIL_WIDTH, bitmap.getWidth());
+            assertEquals(THUMBNAIL_HEIGHT, bitmap.getHeight());
+        }
+
+        // Binding on the main thread never loads an image there, all of them are decoded on
+        // the worker threads.
+        assertEquals(0, mHandler.mMainThreadLoadCount.get());
+        assertEquals(0, mHandler.getMainThreadDecodeMillis());
+
+        // Rows showing an image decoded before are served from the memory cache, or share the
+        // decode still in flight, so each image is decoded once.
+        assertTrue(mHandler.getDecodeCount() > 0);
+        assertTrue(mHandler.getDecodeCount() <= mKeys.length);
+        Log.i(LOG_TAG, ROW_COUNT + " rows bound in " + bindMillis[0] + " ms, " +
+                mHandler.getDecodeCount() + " decodes off the main thread in " +
+                mHandler.getDecodeMillis() + " ms");
+    }
+
+    /**
+     * Handler counting the loads made on the main thread, which the decode time alone can't
+     * tell apart from a decode too quick to measure.
+     */
+    private static class ThreadRecordingHandler extends StoredImageRequestHandler {
+        final AtomicInteger mMainThreadLoadCount = new AtomicInteger();
+
+        ThreadRecordingHandler(Context context) {
+            super(context);
+        }
+
+        @Override
+        public Result load(Request request, int networkPolicy) throws IOException {
+            if(Looper.myLooper() == Looper.getMainLooper()) {
+                mMainThreadLoadCount.incrementAndGet();
+            }
+            return super.load(request, networkPolicy);
+        }
+    }
+
+    // Builds a JPEG image of the color, at the size of the stored images.
+    private static byte[] buildImage(int color) {
+        Bitmap bitmap = Bitmap.createBitmap(IMAGE_WIDTH, IMAGE_HEIGHT, Bitmap.Config.ARGB_8888);
+        new Canvas(bitmap).drawColor(color);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, outputStream);
+        bitmap.recycle();
+        return outputStream.toByteArray();
+    }
+}
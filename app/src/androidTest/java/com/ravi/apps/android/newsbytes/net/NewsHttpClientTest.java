@@ -0,0 +1,126 @@
+package com.ravi.apps.android.newsbytes.net;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import java.io.IOException;
+
+import okio.Buffer;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * Runs requests through the shared client against a local server, checking the responses
+ * are gzip compressed on the wire and consecutive requests reuse the keep-alive connection.
+ */
+public class NewsHttpClientTest extends AndroidTestCase {
+
+    // Tag for logging messages.
+    private static final String LOG_TAG = NewsHttpClientTest.class.getSimpleName();
+
+    // Number of stories in the response body served.
+    private static final int STORY_COUNT = 200;
+
+    private MockWebServer mServer;
+    private NewsHttpClient mHttpClient;
+    private String mBody;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new MockWebServer();
+        mServer.start();
+        mHttpClient = NewsHttpClient.getInstance(getContext());
+        mBody = buildBody();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testResponseIsCompressed() throws Exception {
+        mServer.enqueue(buildGzipResponse());
+
+        long responseBytes = mHttpClient.getResponseBytes();
+        RequestTimings timings = new RequestTimings();
+        String body = fetch(timings);
+
+        // The client asked for gzip and handed back the body decompressed.
+        RecordedRequest request = mServer.takeRequest();
+        assertEquals("gzip", request.getHeader("Accept-Encoding"));
+        assertEquals(mBody, body);
+
+        // Only the compressed bytes were read off the network.
+        long wireBytes = mHttpClient.getResponseBytes() - responseBytes;
+        int bodyBytes = mBody.getBytes("UTF-8").length;
+        Log.i(LOG_TAG, bodyBytes + " body bytes received in " + wireBytes + " bytes");
+        assertTrue(wireBytes > 0);
+        assertTrue(wireBytes < bodyBytes);
+
+        // The request got the same count of its own.
+        assertEquals(wireBytes, timings.getResponseBytes());
+    }
+
+    public void testConnectionIsReused() throws Exception {
+        mServer.enqueue(buildGzipResponse());
+        mServer.enqueue(buildGzipResponse());
+
+        long connectionCount = mHttpClient.getConnectionCount();
+        long requestCount = mHttpClient.getRequestCount();
+        assertEquals(mBody, fetch(null));
+        assertEquals(mBody, fetch(null));
+
+        // Both requests went out, the second on the connection the first left in the pool.
+        assertEquals(2, mHttpClient.getRequestCount() - requestCount);
+        assertEquals(1, mHttpClient.getConnectionCount() - connectionCount);
+        assertEquals(0, mServer.takeRequest().getSequenceNumber());
+        assertEquals(1, mServer.takeRequest().getSequenceNumber());
+    }
+
+    /**
+     * Requests the body from the server and reads it fully, releasing the connection. The
+     * timings, if given, are filled in by the client.
+     */
+    private String fetch(RequestTimings timings) throws IOException {
+        Request request = new Request.Builder()
+                .url(mServer.url("/svc/topstories/v1/world.json"))
+                .tag(timings)
+                .build();
+        Response response = mHttpClient.getClient().newCall(request).execute();
+        assertTrue(response.isSuccessful());
+        return response.body().string();
+    }
+
+    // Builds a response serving the body gzip compressed.
+    private MockResponse buildGzipResponse() throws IOException {
+        Buffer compressed = new Buffer();
+        GzipSink gzipSink = new GzipSink(compressed);
+        Okio.buffer(gzipSink).writeUtf8(mBody).close();
+        return new MockResponse()
+                .setHeader("Content-Type", "application/json")
+                .setHeader("Content-Encoding", "gzip")
+                .setBody(compressed);
+    }
+
+    // Builds a top stories body, as repetitive as the real ones.
+    private static String buildBody() {
+        StringBuilder builder = new StringBuilder("{\"status\":\"OK\",\"results\":[");
+        for(int i = 0; i < STORY_COUNT; i++) {
+            if(i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"section\":\"World\",\"title\":\"Story ").append(i)
+                    .append("\",\"url\":\"http://www.nytimes.com/2015/12/01/world/story-")
+                    .append(i).append(".html\",\"byline\":\"By A Reporter\"}");
+        }
+        return builder.append("]}").toString();
+    }
+}
@@ -0,0 +1,281 @@
+package com.ravi.apps.android.newsbytes.service;
+
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+import com.ravi.apps.android.newsbytes.R;
+import com.ravi.apps.android.newsbytes.data.NewsContract;
+import com.ravi.apps.android.newsbytes.data.NewsContract.NewsEntry;
+import com.ravi.apps.android.newsbytes.data.NewsDbHelper;
+import com.ravi.apps.android.newsbytes.data.NewsProvider;
+import com.ravi.apps.android.newsbytes.net.NewsImageLoader;
+import com.ravi.apps.android.newsbytes.receiver.ConnectivityReceiver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the favorite image downloads against stories stored through the provider, with the
+ * network and the image responses stood in for, and checks which favorites are left waiting.
+ */
+public class FavoriteMediaServiceTest extends AndroidTestCase {
+
+    // Projection of the image columns checked.
+    private static final String[] IMAGE_PROJECTION = {
+            NewsEntry.COLUMN_THUMBNAIL_KEY,
+            NewsEntry.COLUMN_PHOTO_KEY,
+            NewsEntry.COLUMN_MEDIA_PENDING
+    };
+    private static final int COL_THUMBNAIL_KEY = 0;
+    private static final int COL_PHOTO_KEY = 1;
+    private static final int COL_MEDIA_PENDING = 2;
+
+    private Context mContext;
+    private TestNewsProvider mNewsProvider;
+    private TestService mService;
+    private SharedPreferences mSharedPreferences;
+    private String mMeteredKey;
+    private Boolean mSavedMeteredPreference;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new RenamingDelegatingContext(getContext(), "test_");
+        mContext.deleteDatabase(NewsDbHelper.DATABASE_NAME);
+
+        mNewsProvider = new TestNewsProvider();
+        mNewsProvider.attachInfo(mContext, null);
+        MockContentResolver contentResolver = new MockContentResolver();
+        contentResolver.addProvider(NewsContract.CONTENT_AUTHORITY, mNewsProvider);
+        mService = new TestService(mContext, contentResolver);
+
+        // Photos are only downloaded on unmetered networks unless the user allows otherwise.
+        mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(getContext());
+        mMeteredKey = getContext().getString(R.string.pref_favorite_media_metered_key);
+        if(mSharedPreferences.contains(mMeteredKey)) {
+            mSavedMeteredPreference = mSharedPreferences.getBoolean(mMeteredKey, false);
+        }
+        mSharedPreferences.edit().putBoolean(mMeteredKey, false).commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        // Delete the stories through the provider, so their images are deleted too.
+        mService.getContentResolver().delete(NewsEntry.CONTENT_URI, null, null);
+        mContext.deleteDatabase(NewsDbHelper.DATABASE_NAME);
+
+        getContext().getPackageManager().setComponentEnabledSetting(
+                getReceiverComponent(), PackageManager.COMPONENT_ENABLED_STATE_DEFAULT,
+                PackageManager.DONT_KILL_APP);
+        if(mSavedMeteredPreference != null) {
+            mSharedPreferences.edit().putBoolean(mMeteredKey, mSavedMeteredPreference).commit();
+        } else {
+            mSharedPreferences.edit().remove(mMeteredKey).commit();
+        }
+        super.tearDown();
+    }
+
+    public void testPhotoWaitsForUnmeteredNetwork() {
+        Uri uri = insertFavorite(1);
+
+        // On a metered network only the thumbnail is downloaded.
+        mService.mIsNetworkMetered = true;
+        mService.onHandleIntent(null);
+        assertImages(uri, true, false, 1);
+        assertTrue(isReceiverEnabled());
+
+        // The photo follows once the network is unmetered.
+        mService.mIsNetworkMetered = false;
+        mService.onHandleIntent(null);
+        assertImages(uri, true, true, 0);
+        assertFalse(isReceiverEnabled());
+    }
+
+    public void testPermanentErrorClearsPending() {
+        Uri uri = insertFavorite(1);
+
+        // The photo is gone from the server, so the favorite stops waiting for it.
+        mService.mStatuses.put(getPhotoUrl(1), 404);
+        mService.onHandleIntent(null);
+        assertImages(uri, true, false, 0);
+        assertFalse(isReceiverEnabled());
+    }
+
+    public void testTransientErrorKeepsPending() {
+        Uri uri = insertFavorite(1);
+
+        // The server is failing for now, so the favorite keeps waiting for the photo.
+        mService.mStatuses.put(getPhotoUrl(1), 503);
+        mService.onHandleIntent(null);
+        assertImages(uri, true, false, 1);
+        assertTrue(isReceiverEnabled());
+
+        // The next run tries the photo again, but not the thumbnail stored already.
+        mService.mStatuses.clear();
+        mService.mFetchedUrls.clear();
+        mService.onHandleIntent(null);
+        assertImages(uri, true, true, 0);
+        assertEquals(1, mService.mFetchedUrls.size());
+        assertEquals(getPhotoUrl(1), mService.mFetchedUrls.get(0));
+    }
+
+    public void testStoreFailureKeepsPending() {
+        Uri firstUri = insertFavorite(1);
+        Uri secondUri = insertFavorite(2);
+
+        // Saving the images fails, each favorite is tried and left waiting.
+        mNewsProvider.mIsUpdateFailing = true;
+        mService.onHandleIntent(null);
+        assertImages(firstUri, false, false, 1);
+        assertImages(secondUri, false, false, 1);
+        assertEquals(4, mService.mFetchedUrls.size());
+        assertTrue(isReceiverEnabled());
+
+        // Both favorites are complete once the images can be saved.
+        mNewsProvider.mIsUpdateFailing = false;
+        mService.onHandleIntent(null);
+        assertImages(firstUri, true, true, 0);
+        assertImages(secondUri, true, true, 0);
+        assertFalse(isReceiverEnabled());
+    }
+
+    // Inserts a favorite waiting for its thumbnail and photo, returning its uri.
+    private Uri insertFavorite(int number) {
+        ContentValues values = new ContentValues();
+        values.put(NewsEntry.COLUMN_HEADLINE, "Favorite " + number);
+        values.put(NewsEntry.COLUMN_URI_STORY, "http://example.com/" + number);
+        values.put(NewsEntry.COLUMN_URI_THUMBNAIL, getThumbnailUrl(number));
+        values.put(NewsEntry.COLUMN_URI_PHOTO, getPhotoUrl(number));
+        values.put(NewsEntry.COLUMN_SECTION, NewsEntry.SECTION_FAVORITES);
+        values.put(NewsEntry.COLUMN_IS_FAVORITE, 1);
+        values.put(NewsEntry.COLUMN_MEDIA_PENDING, 1);
+        Uri uri = mService.getContentResolver().insert(NewsEntry.CONTENT_URI, values);
+        assertNotNull(uri);
+        return uri;
+    }
+
+    // Checks which images of the favorite are stored, and whether it's waiting for any.
+    private void assertImages(Uri uri, boolean hasThumbnail, boolean hasPhoto, int mediaPending) {
+        Cursor cursor = mService.getContentResolver().query(uri, IMAGE_PROJECTION,
+                null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(hasThumbnail, !cursor.isNull(COL_THUMBNAIL_KEY));
+            assertEquals(hasPhoto, !cursor.isNull(COL_PHOTO_KEY));
+            assertEquals(mediaPending, cursor.getInt(COL_MEDIA_PENDING));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Returns whether the receiver of the network connections is enabled.
+    private boolean isReceiverEnabled() {
+        return getContext().getPackageManager().getComponentEnabledSetting(
+                getReceiverComponent()) == PackageManager.COMPONENT_ENABLED_STATE_ENABLED;
+    }
+
+    private ComponentName getReceiverComponent() {
+        return new ComponentName(getContext(), ConnectivityReceiver.class);
+    }
+
+    private static String getThumbnailUrl(int number) {
+        return "http://example.com/" + number + "/thumbnail.jpg";
+    }
+
+    private static String getPhotoUrl(int number) {
+        return "http://example.com/" + number + "/photo.jpg";
+    }
+
+    // Builds a small JPEG image standing in for a downloaded one.
+    private static byte[] buildImage() {
+        Bitmap bitmap = Bitmap.createBitmap(16, 12, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.BLUE);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, outputStream);
+        bitmap.recycle();
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Provider failing the updates on demand, as when the image store can't be written.
+     */
+    private static class TestNewsProvider extends NewsProvider {
+        volatile boolean mIsUpdateFailing;
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                          String[] selectionArgs) {
+            if(mIsUpdateFailing) {
+                throw new SQLException(uri.toString());
+            }
+            return super.update(uri, values, selection, selectionArgs);
+        }
+    }
+
+    /**
+     * Service reading the stories through the test provider, with the network state and the
+     * image responses set by the tests. Nothing is cached, so an image is only fetched when
+     * the network is allowed.
+     */
+    private static class TestService extends FavoriteMediaService {
+        private final ContentResolver mContentResolver;
+        private final byte[] mImageBytes = buildImage();
+
+        boolean mIsNetworkMetered;
+
+        // HTTP statuses of the urls failing, and the urls fetched.
+        final Map<String, Integer> mStatuses = new HashMap<String, Integer>();
+        final List<String> mFetchedUrls = new ArrayList<String>();
+
+        TestService(Context context, ContentResolver contentResolver) {
+            attachBaseContext(context);
+            mContentResolver = contentResolver;
+        }
+
+        @Override
+        public ContentResolver getContentResolver() {
+            return mContentResolver;
+        }
+
+        @Override
+        boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        boolean isNetworkMetered() {
+            return mIsNetworkMetered;
+        }
+
+        @Override
+        byte[] getOriginalBytes(String url, boolean isNetworkAllowed) throws IOException {
+            if(!isNetworkAllowed) {
+                return null;
+            }
+            mFetchedUrls.add(url);
+            Integer status = mStatuses.get(url);
+            if(status != null) {
+                throw new NewsImageLoader.ImageStatusException(url, status);
+            }
+            return mImageBytes;
+        }
+    }
+}
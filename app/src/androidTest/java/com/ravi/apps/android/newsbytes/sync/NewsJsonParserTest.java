@@ -0,0 +1,201 @@
+package com.ravi.apps.android.newsbytes.sync;
+
+import android.content.ContentValues;
+import android.os.Debug;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.ravi.apps.android.newsbytes.data.NewsContract.NewsEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Parses a recorded top stories response with the streaming parser and with the JSONObject
+ * tree the sync used before, checking they produce the same stories, and logs the bytes
+ * each allocates. The response is read from the assets of the test package, hence the
+ * instrumentation test case.
+ */
+public class NewsJsonParserTest extends InstrumentationTestCase {
+
+    // Tag for logging messages.
+    private static final String LOG_TAG = NewsJsonParserTest.class.getSimpleName();
+
+    // Recorded top stories response of the world section.
+    private static final String PAYLOAD_ASSET = "top_stories_world.json";
+
+    // Stories in the response, and those without a headline or images array to be skipped.
+    private static final int RESULT_COUNT = 40;
+    private static final int SKIPPED_COUNT = 2;
+
+    // JSON fields in the query response.
+    private static final String NYT_RESULTS = "results";
+    private static final String NYT_TITLE = "title";
+    private static final String NYT_ABSTRACT = "abstract";
+    private static final String NYT_URL = "url";
+    private static final String NYT_BYLINE = "byline";
+    private static final String NYT_PUBLISHED_DATE = "published_date";
+    private static final String NYT_MULTIMEDIA = "multimedia";
+    private static final String NYT_FORMAT = "format";
+    private static final String NYT_CAPTION = "caption";
+    private static final String NYT_COPYRIGHT = "copyright";
+
+    // JSON format field values.
+    private static final String NYT_FORMAT_STANDARD_THUMBNAIL = "Standard Thumbnail";
+    private static final String NYT_FORMAT_NORMAL = "Normal";
+
+    public void testMatchesTreeParser() throws Exception {
+        Vector<ContentValues> streamedStories = parseStreaming();
+        List<ContentValues> treeStories = parseTree();
+
+        assertEquals(RESULT_COUNT - SKIPPED_COUNT, streamedStories.size());
+        assertEquals(treeStories.size(), streamedStories.size());
+        for(int i = 0; i < treeStories.size(); i++) {
+            assertEquals(treeStories.get(i), streamedStories.get(i));
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testAllocations() throws Exception {
+        // Warm up both paths, so class loading isn't counted.
+        parseStreaming();
+        parseTree();
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocSize();
+        Debug.resetThreadAllocCount();
+        parseStreaming();
+        long streamingBytes = Debug.getThreadAllocSize();
+        long streamingCount = Debug.getThreadAllocCount();
+
+        Debug.resetThreadAllocSize();
+        Debug.resetThreadAllocCount();
+        parseTree();
+        long treeBytes = Debug.getThreadAllocSize();
+        long treeCount = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        Log.i(LOG_TAG, "streaming parser: " + streamingCount + " allocations, " +
+                streamingBytes + " bytes; tree parser: " + treeCount + " allocations, " +
+                treeBytes + " bytes");
+        assertTrue(streamingBytes < treeBytes);
+    }
+
+    // Parses the recorded response with the streaming parser.
+    private Vector<ContentValues> parseStreaming() throws IOException {
+        InputStream inputStream = openPayload();
+        try {
+            return NewsJsonParser.parse(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Parses the recorded response the way the sync did before the streaming parser: the
+     * response is read into a string and built into a JSONObject tree. The image bytes
+     * columns it used to fill with nulls are left out, they're no longer parsed.
+     */
+    private List<ContentValues> parseTree() throws IOException, JSONException {
+        // Read the response input stream into a string buffer.
+        BufferedReader bufferedReader =
+                new BufferedReader(new InputStreamReader(openPayload()));
+        StringBuffer stringBuffer = new StringBuffer();
+        try {
+            String line;
+            while((line = bufferedReader.readLine()) != null) {
+                stringBuffer.append(line);
+            }
+        } finally {
+            bufferedReader.close();
+        }
+
+        Vector<ContentValues> vectorContentValues = new Vector<ContentValues>();
+        JSONObject newsJson = new JSONObject(stringBuffer.toString());
+        if(!(newsJson.opt(NYT_RESULTS) instanceof JSONArray)) {
+            return vectorContentValues;
+        }
+        JSONArray resultsJsonArray = newsJson.getJSONArray(NYT_RESULTS);
+
+        for(int i = 0; i < resultsJsonArray.length(); i++) {
+            JSONObject jsonNewsStory = resultsJsonArray.getJSONObject(i);
+
+            // No headline found, skip this story.
+            String headline = getNonEmptyString(jsonNewsStory, NYT_TITLE);
+            if(headline == null) {
+                continue;
+            }
+
+            // No multimedia array found, skip this story.
+            if(!(jsonNewsStory.opt(NYT_MULTIMEDIA) instanceof JSONArray)) {
+                continue;
+            }
+            JSONArray multimediaJsonArray = jsonNewsStory.getJSONArray(NYT_MULTIMEDIA);
+
+            String uriThumbnail = null;
+            String captionThumbnail = null;
+            String copyrightThumbnail = null;
+            String uriPhoto = null;
+            String captionPhoto = null;
+            String copyrightPhoto = null;
+            for(int j = 0; j < multimediaJsonArray.length(); j++) {
+                JSONObject jsonImage = multimediaJsonArray.getJSONObject(j);
+                String format = getNonEmptyString(jsonImage, NYT_FORMAT);
+                String uri = getNonEmptyString(jsonImage, NYT_URL);
+                if(format == null || uri == null) {
+                    continue;
+                }
+
+                if(format.equals(NYT_FORMAT_STANDARD_THUMBNAIL)) {
+                    uriThumbnail = uri;
+                    captionThumbnail = getNonEmptyString(jsonImage, NYT_CAPTION);
+                    copyrightThumbnail = getNonEmptyString(jsonImage, NYT_COPYRIGHT);
+                } else if(format.equals(NYT_FORMAT_NORMAL)) {
+                    uriPhoto = uri;
+                    captionPhoto = getNonEmptyString(jsonImage, NYT_CAPTION);
+                    copyrightPhoto = getNonEmptyString(jsonImage, NYT_COPYRIGHT);
+                }
+            }
+
+            ContentValues newsValues = new ContentValues();
+            newsValues.put(NewsEntry.COLUMN_HEADLINE, headline);
+            newsValues.put(NewsEntry.COLUMN_SUMMARY,
+                    getNonEmptyString(jsonNewsStory, NYT_ABSTRACT));
+            newsValues.put(NewsEntry.COLUMN_URI_STORY, getNonEmptyString(jsonNewsStory, NYT_URL));
+            newsValues.put(NewsEntry.COLUMN_AUTHOR, getNonEmptyString(jsonNewsStory, NYT_BYLINE));
+            newsValues.put(NewsEntry.COLUMN_DATE,
+                    getNonEmptyString(jsonNewsStory, NYT_PUBLISHED_DATE));
+            newsValues.put(NewsEntry.COLUMN_URI_THUMBNAIL, uriThumbnail);
+            newsValues.put(NewsEntry.COLUMN_CAPTION_THUMBNAIL, captionThumbnail);
+            newsValues.put(NewsEntry.COLUMN_COPYRIGHT_THUMBNAIL, copyrightThumbnail);
+            newsValues.put(NewsEntry.COLUMN_URI_PHOTO, uriPhoto);
+            newsValues.put(NewsEntry.COLUMN_CAPTION_PHOTO, captionPhoto);
+            newsValues.put(NewsEntry.COLUMN_COPYRIGHT_PHOTO, copyrightPhoto);
+            newsValues.put(NewsEntry.COLUMN_IS_FAVORITE, 0);
+            vectorContentValues.add(newsValues);
+        }
+        return vectorContentValues;
+    }
+
+    // Returns the field of the object if it is a non-empty string, else null.
+    private static String getNonEmptyString(JSONObject jsonObject, String name) {
+        Object value = jsonObject.opt(name);
+        if(value instanceof String && !((String) value).isEmpty()) {
+            return (String) value;
+        }
+        return null;
+    }
+
+    // Opens the recorded response from the assets of the test package.
+    private InputStream openPayload() throws IOException {
+        return getInstrumentation().getContext().getAssets().open(PAYLOAD_ASSET);
+    }
+}
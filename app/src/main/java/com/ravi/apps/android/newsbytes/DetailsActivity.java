@@ -16,8 +16,7 @@
 
 package com.ravi.apps.android.newsbytes;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.view.ViewCompat;
@@ -27,6 +26,8 @@ import android.transition.TransitionInflater;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.squareup.picasso.Picasso;
+
 public class DetailsActivity extends AppCompatActivity {
 
     // Tag for logging messages.
@@ -107,16 +108,18 @@ public class DetailsActivity extends AppCompatActivity {
         // Set the thumbnail view parameters.
         mThumbnailView.setX(bundle.getFloat(MainActivity.IMAGE_XPOS));
         mThumbnailView.setY(bundle.getFloat(MainActivity.IMAGE_YPOS));
-        byte[] thumbnailByteStream = bundle.getByteArray(MainActivity.IMAGE);
-        if(thumbnailByteStream != null && thumbnailByteStream.length != 0) {
-            // Get the thumbnail bitmap from byte array.
-            Bitmap thumbnailBitmap = BitmapFactory.decodeByteArray(thumbnailByteStream, 0, thumbnailByteStream.length);
-
-            // Set the thumbnail bitmap into the image view.
-            if(thumbnailBitmap != null) {
-                mThumbnailView.setImageBitmap(thumbnailBitmap);
-                mThumbnailView.setScaleType(ImageView.ScaleType.FIT_XY);
-            }
+        String thumbnailUri = bundle.getString(MainActivity.IMAGE);
+        int thumbnailWidth = bundle.getInt(MainActivity.IMAGE_WIDTH);
+        int thumbnailHeight = bundle.getInt(MainActivity.IMAGE_HEIGHT);
+        if(thumbnailUri != null && thumbnailWidth > 0 && thumbnailHeight > 0) {
+            // Load the thumbnail the headlines list showed at the same size, so it's taken
+            // from the memory cache and set right away.
+            mThumbnailView.setScaleType(ImageView.ScaleType.FIT_XY);
+            Picasso.with(this)
+                    .load(Uri.parse(thumbnailUri))
+                    .resize(thumbnailWidth, thumbnailHeight)
+                    .noFade()
+                    .into(mThumbnailView);
         }
 
         // Set the thumbnail view parameters.
@@ -18,11 +18,12 @@ package com.ravi.apps.android.newsbytes;
 
 import android.app.AlertDialog;
 import android.app.Fragment;
+import android.app.LoaderManager;
+import android.content.CursorLoader;
 import android.content.Intent;
+import android.content.Loader;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.drawable.Drawable;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -41,17 +42,18 @@ import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.ravi.apps.android.newsbytes.data.NewsContract;
+import com.ravi.apps.android.newsbytes.data.NewsContract.NewsEntry;
 import com.ravi.apps.android.newsbytes.service.AddFavoriteService;
+import com.squareup.picasso.Callback;
 import com.squareup.picasso.Picasso;
-import com.squareup.picasso.Target;
-
-import java.io.ByteArrayOutputStream;
 
 /**
  * Displays detailed information about the news story.
  */
 public class DetailsFragment extends Fragment
-        implements View.OnClickListener, ParallaxScrollView.OnScrollChangedListener {
+        implements View.OnClickListener, ParallaxScrollView.OnScrollChangedListener,
+        LoaderManager.LoaderCallbacks<Cursor> {
 
     // Tag for logging messages.
     private static final String LOG_TAG = DetailsFragment.class.getSimpleName();
@@ -59,8 +61,8 @@ public class DetailsFragment extends Fragment
     // Tag used to identify this fragment.
     public static final String DETAILS_FRAGMENT_TAG = "details_fragment_tag";
 
-    // Key used to get the news parcelable from bundle.
-    public static final String NEWS_DETAILS = "news_details";
+    // Key used to get the id of the news story from bundle.
+    public static final String NEWS_ID = "news_id";
 
     // Key used to pass the favorite news story data to the intent service.
     public static final String NEWS_FAVORITE = "news_favorite";
@@ -68,7 +70,51 @@ public class DetailsFragment extends Fragment
     // Key used to save news story object upon configuration change.
     public static final String NEWS_KEY = "news_key";
 
-    // News object containing the details about this news story.
+    // Cursor loader to fetch the news story from the news content provider.
+    private static final int DETAILS_LOADER = 0;
+
+    // Projection for the cursor loader.
+    private static final String[] DETAILS_PROJECTION = {
+            NewsEntry.COLUMN_HEADLINE,
+            NewsEntry.COLUMN_SUMMARY,
+            NewsEntry.COLUMN_URI_STORY,
+            NewsEntry.COLUMN_AUTHOR,
+            NewsEntry.COLUMN_DATE,
+            NewsEntry.COLUMN_DATE_MILLIS,
+            NewsEntry.COLUMN_DATE_DISPLAY,
+            NewsEntry.COLUMN_URI_THUMBNAIL,
+            NewsEntry.COLUMN_THUMBNAIL_KEY,
+            NewsEntry.COLUMN_CAPTION_THUMBNAIL,
+            NewsEntry.COLUMN_COPYRIGHT_THUMBNAIL,
+            NewsEntry.COLUMN_URI_PHOTO,
+            NewsEntry.COLUMN_PHOTO_KEY,
+            NewsEntry.COLUMN_CAPTION_PHOTO,
+            NewsEntry.COLUMN_COPYRIGHT_PHOTO,
+            NewsEntry.COLUMN_IS_FAVORITE
+    };
+
+    // Column indices tied to the cursor loader projection.
+    private static final int COL_HEADLINE = 0;
+    private static final int COL_SUMMARY = 1;
+    private static final int COL_URI_STORY = 2;
+    private static final int COL_AUTHOR = 3;
+    private static final int COL_DATE = 4;
+    private static final int COL_DATE_MILLIS = 5;
+    private static final int COL_DATE_DISPLAY = 6;
+    private static final int COL_URI_THUMBNAIL = 7;
+    private static final int COL_THUMBNAIL_KEY = 8;
+    private static final int COL_CAPTION_THUMBNAIL = 9;
+    private static final int COL_COPYRIGHT_THUMBNAIL = 10;
+    private static final int COL_URI_PHOTO = 11;
+    private static final int COL_PHOTO_KEY = 12;
+    private static final int COL_CAPTION_PHOTO = 13;
+    private static final int COL_COPYRIGHT_PHOTO = 14;
+    private static final int COL_IS_FAVORITE = 15;
+
+    // Id of the news story.
+    private long mNewsId;
+
+    // News object containing the details about this news story, null until it's loaded.
     private News mNews;
 
     // Parallax scroll view.
@@ -86,11 +132,8 @@ public class DetailsFragment extends Fragment
     private Button mReadMore;
     private FloatingActionButton mShare;
 
-    // Reference to thumbnail target for picasso.
-    private ThumbnailTarget mThumbnailTarget = new ThumbnailTarget();
-
-    // Reference to photo target for picasso.
-    private PhotoTarget mPhotoTarget = new PhotoTarget();
+    // Callback of the photo loaded from the url.
+    private PhotoCallback mPhotoCallback = new PhotoCallback();
 
     // Reference to share action provider.
     private ShareActionProvider mShareActionProvider;
@@ -112,8 +155,8 @@ public class DetailsFragment extends Fragment
         // Get the arguments for this fragment.
         Bundle arguments = getArguments();
         if(arguments != null) {
-            // Extract the news object.
-            mNews = (News) arguments.getParcelable(NEWS_DETAILS);
+            // Extract the news story id.
+            mNewsId = arguments.getLong(NEWS_ID);
 
             // Extract the shared element transition names ONLY if it's lollipop or above
             // AND bundle contains the required data.
@@ -144,15 +187,61 @@ public class DetailsFragment extends Fragment
         // Set the scroll changed listener.
         mParallaxScrollView.setOnScrollChangedListener(this);
 
-        // Bind data to all the views.
+        // Bind data to all the views if the news story was restored, else it's bound
+        // once the loader has loaded it.
+        if(mNews != null) {
+            bindDataToView();
+
+            // If the share action provider has been created, set the share intent.
+            if(mShareActionProvider != null) {
+                mShareActionProvider.setShareIntent(createNewsShareIntent());
+            }
+        }
+
+        return rootView;
+    }
+
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+
+        // Load the news story by its id, unless it was restored.
+        if(mNews == null) {
+            getLoaderManager().initLoader(DETAILS_LOADER, null, this);
+        }
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        // Create loader to retrieve the single news story through content provider.
+        return new CursorLoader(
+                getActivity(),
+                NewsEntry.buildNewsUri(mNewsId),
+                DETAILS_PROJECTION,
+                null,
+                null,
+                null);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        // Bind the news story only once, later reloads (e.g. once it's marked as
+        // favorite) don't change what is shown.
+        if(mNews != null || data == null || !data.moveToFirst()) {
+            return;
+        }
+
+        mNews = buildNewsObject(data);
         bindDataToView();
 
         // If the share action provider has been created, set the share intent.
         if(mShareActionProvider != null) {
             mShareActionProvider.setShareIntent(createNewsShareIntent());
         }
+    }
 
-        return rootView;
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
     }
 
     @Override
@@ -180,8 +269,21 @@ public class DetailsFragment extends Fragment
         super.onSaveInstanceState(outState);
     }
 
+    @Override
+    public void onDestroyView() {
+        // Drop the photo request, so its callback doesn't outlive the view.
+        Picasso.with(getActivity()).cancelRequest(mPhoto);
+
+        super.onDestroyView();
+    }
+
     @Override
     public void onClick(View v) {
+        // Nothing to act on until the news story is loaded.
+        if(mNews == null) {
+            return;
+        }
+
         // Determine which view was clicked and proceed accordingly.
         switch(v.getId()) {
             case R.id.mark_favorite_button: {
@@ -208,8 +310,7 @@ public class DetailsFragment extends Fragment
 
                     // Set the intent action and data.
                     newsIntent.setAction(Intent.ACTION_VIEW)
-                            .setData(Uri.parse(Utility
-                                    .removeCharsFromString(mNews.getUriStory(), "\\")));
+                            .setData(Uri.parse(mNews.getUriStory()));
 
                     // Check if at least one app exists on the device that can handle this intent.
                     if(getActivity().getPackageManager().queryIntentActivities
@@ -274,81 +375,17 @@ public class DetailsFragment extends Fragment
     }
 
     /**
-     * Provides target for Picasso that loads the thumbnail image from the url
-     * and extracts and stores the thumbnail image byte array.
+     * Logs the photo that failed to load from the url. The placeholder stays shown.
      */
-    private final class ThumbnailTarget implements Target {
-
-        @Override
-        public void onBitmapLoaded(Bitmap bitmap, Picasso.LoadedFrom from) {
-            // Check if bitmap is valid before attempting to convert into byte array.
-            if(bitmap != null) {
-                // Get byte array from thumbnail bitmap.
-                ByteArrayOutputStream stream = new ByteArrayOutputStream();
-                bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
-
-                // Set the thumbnail byte array in the news object.
-                mNews.setThumbnailByteArray(stream.toByteArray());
-            }
-        }
+    private final class PhotoCallback implements Callback {
 
         @Override
-        public void onPrepareLoad(Drawable placeHolderDrawable) {
-            // Show the placeholder.
-            mPhoto.setImageResource(R.drawable.thumbnail_placeholder);
+        public void onSuccess() {
         }
 
         @Override
-        public void onBitmapFailed(Drawable errorDrawable) {
-            // Show the placeholder and log error message.
-            mPhoto.setImageResource(R.drawable.thumbnail_placeholder);
-            Log.e(LOG_TAG, getString(R.string.log_thumbnail_load_failed));
-        }
-    }
-
-    /**
-     * Provides target for Picasso that loads the photo image from the url
-     * and extracts and stores the photo image byte array.
-     */
-    private final class PhotoTarget implements Target {
-
-        @Override
-        public void onBitmapLoaded(Bitmap bitmap, Picasso.LoadedFrom from) {
-            // Check if bitmap is valid before attempting to convert into byte array.
-            if(bitmap != null) {
-                // Set photo bitmap onto the image view.
-                mPhoto.setImageBitmap(bitmap);
-
-                // Get byte array from photo bitmap.
-                ByteArrayOutputStream stream = new ByteArrayOutputStream();
-                bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
-
-                // Set the photo byte array in the news object.
-                mNews.setPhotoByteArray(stream.toByteArray());
-            }
-
-            // Now enable the mark as favorite button if this is not a favorite story.
-            if(mNews.getIsFavorite() == 0) {
-                mMarkAsFav.setEnabled(true);
-            }
-        }
-
-        @Override
-        public void onPrepareLoad(Drawable placeHolderDrawable) {
-            // Show the placeholder.
-            mPhoto.setImageResource(R.drawable.photo_placeholder);
-        }
-
-        @Override
-        public void onBitmapFailed(Drawable errorDrawable) {
-            // Show the placeholder and log error message.
-            mPhoto.setImageResource(R.drawable.photo_placeholder);
+        public void onError() {
             Log.e(LOG_TAG, getString(R.string.log_photo_load_failed));
-
-            // Now enable the mark as favorite button if this is not a favorite story.
-            if(mNews.getIsFavorite() == 0) {
-                mMarkAsFav.setEnabled(true);
-            }
         }
     }
 
@@ -383,48 +420,32 @@ public class DetailsFragment extends Fragment
      * Binds the data to the corresponding views.
      */
     private void bindDataToView() {
-        // Load photo into image view. If this is a favorite story,
-        // then load from byte array else use Picasso.
-        if(mNews.getIsFavorite() == 1) {
-            // Get the photo byte array from the news object.
-            byte[] photoByteStream = mNews.getPhoto();
-
-            // Check if byte array for photo is non null and non zero length.
-            if(photoByteStream != null && photoByteStream.length != 0) {
-                // Get the photo bitmap from byte array.
-                Bitmap photoBitmap = BitmapFactory.decodeByteArray(photoByteStream, 0, photoByteStream.length);
-
-                // Set the photo bitmap into the image view.
-                mPhoto.setImageBitmap(photoBitmap);
-                mPhoto.setScaleType(ImageView.ScaleType.FIT_XY);
-            } else {
-                // Show photo placeholder icon and log error message.
-                mPhoto.setImageResource(R.drawable.photo_placeholder);
-                Log.e(LOG_TAG, getString(R.string.msg_err_no_photo));
-            }
-        } else {
+        // Load photo into image view. If this is a favorite story whose photo was stored,
+        // then load from the image store else from the url.
+        if(mNews.getIsFavorite() == 1 && mNews.getPhotoKey() != null) {
+            // Load the stored photo into the image view using Picasso.
+            mPhoto.setScaleType(ImageView.ScaleType.FIT_XY);
+            Picasso.with(getActivity())
+                    .load(NewsContract.ImageEntry.buildImageUri(mNews.getPhotoKey()))
+                    .placeholder(R.drawable.photo_placeholder)
+                    .into(mPhoto);
+        } else if(mNews.getUriPhoto() != null) {
             // Load the photo using picasso.
-            if(mNews.getUriPhoto() != null) {
-                Picasso.with(getActivity())
-                        .load(mNews.getUriPhoto())
-                        .into(mPhotoTarget);
-            } else {
-                // Show photo placeholder icon and log error message.
-                mPhoto.setImageResource(R.drawable.photo_placeholder);
-                Log.e(LOG_TAG, getString(R.string.msg_err_no_photo));            }
+            Picasso.with(getActivity())
+                    .load(mNews.getUriPhoto())
+                    .placeholder(R.drawable.photo_placeholder)
+                    .error(R.drawable.photo_placeholder)
+                    .into(mPhoto, mPhotoCallback);
+        } else {
+            // Show photo placeholder icon and log error message.
+            mPhoto.setImageResource(R.drawable.photo_placeholder);
+            Log.e(LOG_TAG, getString(R.string.msg_err_no_photo));
         }
 
-        // Check if it's not a favorite and the thumbnail byte array was not generated in the
-        // headlines screen. If so, use picasso to get the bitmap and generate thumbnail byte
-        // array and then store it in the news object. It will be required if the user
-        // chooses to mark this as favorite.
-        if(mNews.getIsFavorite() == 0
-                && mNews.getThumbnail() != null
-                && mNews.getThumbnail().length == 0) {
-            // Generate the thumbnail byte array using picasso.
-            Picasso.with(getActivity())
-                    .load(mNews.getUriThumbnail())
-                    .into(mThumbnailTarget);
+        // The images of a favorite are downloaded in the background, so the story can be
+        // marked as favorite right away.
+        if(mNews.getIsFavorite() == 0) {
+            mMarkAsFav.setEnabled(true);
         }
 
         // Compose a single string for both caption and copyright and set to the text view.
@@ -476,9 +497,8 @@ public class DetailsFragment extends Fragment
         }
 
         // Set the date.
-        if(mNews.getDate() != null && !mNews.getDate().isEmpty()
-                && Utility.getFormattedDate(getActivity(), mNews.getDate()) != null) {
-            String date = Utility.getFormattedDate(getActivity(), mNews.getDate());
+        if(mNews.getDateDisplay() != null && !mNews.getDateDisplay().isEmpty()) {
+            String date = mNews.getDateDisplay();
             mDate.setText(date);
             mDate.setContentDescription(date);
         } else {
@@ -499,6 +519,30 @@ public class DetailsFragment extends Fragment
         }
     }
 
+    /**
+     * Builds and returns a news object from the cursor passed in.
+     */
+    private News buildNewsObject(Cursor cursor) {
+        // Create and return the news object by extracting the data from the cursor.
+        return new News(
+                cursor.getString(COL_HEADLINE),
+                cursor.getString(COL_SUMMARY),
+                cursor.getString(COL_URI_STORY),
+                cursor.getString(COL_AUTHOR),
+                cursor.getString(COL_DATE),
+                cursor.isNull(COL_DATE_MILLIS) ? null : cursor.getLong(COL_DATE_MILLIS),
+                cursor.getString(COL_DATE_DISPLAY),
+                cursor.getString(COL_URI_THUMBNAIL),
+                cursor.getString(COL_THUMBNAIL_KEY),
+                cursor.getString(COL_CAPTION_THUMBNAIL),
+                cursor.getString(COL_COPYRIGHT_THUMBNAIL),
+                cursor.getString(COL_URI_PHOTO),
+                cursor.getString(COL_PHOTO_KEY),
+                cursor.getString(COL_CAPTION_PHOTO),
+                cursor.getString(COL_COPYRIGHT_PHOTO),
+                cursor.getInt(COL_IS_FAVORITE));
+    }
+
     /**
      * Returns an intent with the news headline, summary and uri added as extras.
      */
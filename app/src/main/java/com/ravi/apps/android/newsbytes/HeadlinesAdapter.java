@@ -18,8 +18,7 @@ package com.ravi.apps.android.newsbytes;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.net.Uri;
 import android.os.Build;
 import android.support.v4.widget.CursorAdapter;
 import android.util.Log;
@@ -29,6 +28,7 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.ravi.apps.android.newsbytes.data.NewsContract;
 import com.squareup.picasso.Picasso;
 
 /**
@@ -43,6 +43,9 @@ public class HeadlinesAdapter extends CursorAdapter {
     public static final String THUMBNAIL_TRANSITION_NAME = "thumbnail_transition_name";
     public static final String HEADLINE_TRANSITION_NAME = "headline_transition_name";
 
+    // Tag of the thumbnail requests, to pause them while the list flings.
+    public static final Object THUMBNAIL_REQUEST_TAG = new Object();
+
     // Cache of the child views for a headlines list item.
     public static class ViewHolder {
         public final ImageView thumbnailView;
@@ -78,41 +81,43 @@ public class HeadlinesAdapter extends CursorAdapter {
         // Get the mark as favorite flag.
         int isFavorite = cursor.getInt(HeadlinesFragment.COL_IS_FAVORITE);
 
-        // If it's marked as favorite load image from byte stream, else use Picasso for loading.
-        if(isFavorite == 1) {
-            // Get the thumbnail blob from cursor.
-            byte[] thumbnailByteStream = cursor.getBlob(HeadlinesFragment.COL_THUMBNAIL);
-
-            // Check if blob for thumbnail is non null.
-            if(thumbnailByteStream != null) {
-                // Get the thumbnail bitmap from byte array.
-                Bitmap thumbnailBitmap = BitmapFactory.decodeByteArray(thumbnailByteStream, 0, thumbnailByteStream.length);
-
-                // Set the thumbnail bitmap into the image view.
-                viewHolder.thumbnailView.setImageBitmap(thumbnailBitmap);
-                viewHolder.thumbnailView.setScaleType(ImageView.ScaleType.FIT_XY);
-            } else {
-                // Show thumbnail placeholder icon and log error message.
-                viewHolder.thumbnailView.setImageResource(R.drawable.thumbnail_placeholder);
-                Log.e(LOG_TAG, context.getString(R.string.msg_err_no_thumbnail));
-            }
+        // Get the thumbnail key from cursor.
+        String thumbnailKey = cursor.getString(HeadlinesFragment.COL_THUMBNAIL_KEY);
+
+        // If it's marked as favorite load image from the image store, else from the url. So
+        // does a favorite whose thumbnail is still being downloaded into the store.
+        if(isFavorite == 1 && thumbnailKey != null) {
+            Uri thumbnailUri = NewsContract.ImageEntry.buildImageUri(thumbnailKey);
+            setThumbnailUri(viewHolder.thumbnailView, thumbnailUri.toString());
+
+            // Load the stored thumbnail into image view using Picasso, decoded off the main
+            // thread to the measured size of the view. Binding the recycled view again
+            // cancels the request it was showing.
+            viewHolder.thumbnailView.setScaleType(ImageView.ScaleType.FIT_XY);
+            Picasso.with(context)
+                    .load(thumbnailUri)
+                    .placeholder(R.drawable.thumbnail_placeholder)
+                    .fit()
+                    .tag(THUMBNAIL_REQUEST_TAG)
+                    .into(viewHolder.thumbnailView);
         } else {
             // Get the thumbnail uri.
             String urlThumbnail = cursor.getString(HeadlinesFragment.COL_URI_THUMBNAIL);
 
             // Check if url for thumbnail is non null.
             if(urlThumbnail != null) {
-                // Remove escape characters from the string.
-                String url = Utility.removeCharsFromString(urlThumbnail, "\\");
+                setThumbnailUri(viewHolder.thumbnailView, urlThumbnail);
 
                 // Load the thumbnail into image view using Picasso.
                 Picasso.with(context)
-                        .load(url)
+                        .load(urlThumbnail)
                         .placeholder(R.drawable.thumbnail_placeholder)
                         .fit()
+                        .tag(THUMBNAIL_REQUEST_TAG)
                         .into(viewHolder.thumbnailView);
             } else {
                 // Show thumbnail placeholder icon and log error message.
+                setThumbnailUri(viewHolder.thumbnailView, null);
                 viewHolder.thumbnailView.setImageResource(R.drawable.thumbnail_placeholder);
                 Log.e(LOG_TAG, context.getString(R.string.msg_err_no_thumbnail));
             }
@@ -138,6 +143,17 @@ public class HeadlinesAdapter extends CursorAdapter {
             viewHolder.headlineView.setTransitionName(HEADLINE_TRANSITION_NAME + cursor.getPosition());
         }
     }
-}
 
+    /**
+     * Returns the uri of the image loaded into the thumbnail view, or null if it shows none.
+     * The image is kept in the memory cache under the uri and the size of the view.
+     */
+    public static String getThumbnailUri(ImageView thumbnailView) {
+        return (String) thumbnailView.getTag(R.id.thumbnail_imageview);
+    }
 
+    // Keeps the uri of the image loaded into the thumbnail view.
+    private static void setThumbnailUri(ImageView thumbnailView, String uri) {
+        thumbnailView.setTag(R.id.thumbnail_imageview, uri);
+    }
+}
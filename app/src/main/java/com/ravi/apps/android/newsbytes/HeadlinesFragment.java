@@ -21,6 +21,7 @@ import android.app.LoaderManager;
 import android.content.CursorLoader;
 import android.content.Loader;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.transition.TransitionInflater;
@@ -28,19 +29,24 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.TextView;
 
 import com.ravi.apps.android.newsbytes.data.NewsContract.NewsEntry;
+import com.ravi.apps.android.newsbytes.sync.NewsSyncAdapter;
+import com.squareup.picasso.Picasso;
 
 /**
  * Displays a list of news story headlines and thumbnails retrieved from the New York Times server.
- * It allows the user to view details on any news story by tapping on it.
+ * It allows the user to view details on any news story by tapping on it. The list is loaded a
+ * page at a time as the user scrolls, so it opens as quickly however many stories it holds.
  */
 public class HeadlinesFragment extends Fragment
-        implements LoaderManager.LoaderCallbacks<Cursor>, ListView.OnItemClickListener {
+        implements LoaderManager.LoaderCallbacks<Cursor>, ListView.OnItemClickListener,
+        AbsListView.OnScrollListener {
 
     // Tag for logging messages.
     public static final String LOG_TAG = HeadlinesFragment.class.getSimpleName();
@@ -48,41 +54,25 @@ public class HeadlinesFragment extends Fragment
     // Cursor loader to fetch the list of news stories from the news content provider.
     private static final int NEWS_LOADER = 0;
 
-    // Projection for the cursor loader.
+    // Projection for the cursor loader, holding only what the list shows and the publication
+    // time the next page starts after. The details of a story are loaded by its id once it's
+    // opened.
     public static final String[] NEWS_PROJECTION = {
             NewsEntry._ID,
             NewsEntry.COLUMN_HEADLINE,
-            NewsEntry.COLUMN_SUMMARY,
-            NewsEntry.COLUMN_URI_STORY,
-            NewsEntry.COLUMN_AUTHOR,
-            NewsEntry.COLUMN_DATE,
             NewsEntry.COLUMN_URI_THUMBNAIL,
-            NewsEntry.COLUMN_THUMBNAIL,
-            NewsEntry.COLUMN_CAPTION_THUMBNAIL,
-            NewsEntry.COLUMN_COPYRIGHT_THUMBNAIL,
-            NewsEntry.COLUMN_URI_PHOTO,
-            NewsEntry.COLUMN_PHOTO,
-            NewsEntry.COLUMN_CAPTION_PHOTO,
-            NewsEntry.COLUMN_COPYRIGHT_PHOTO,
-            NewsEntry.COLUMN_IS_FAVORITE
+            NewsEntry.COLUMN_THUMBNAIL_KEY,
+            NewsEntry.COLUMN_IS_FAVORITE,
+            NewsEntry.COLUMN_DATE_MILLIS
     };
 
     // Column indices tied to the cursor loader projection.
     public static final int COL_ID = 0;
     public static final int COL_HEADLINE = 1;
-    public static final int COL_SUMMARY = 2;
-    public static final int COL_URI_STORY = 3;
-    public static final int COL_AUTHOR = 4;
-    public static final int COL_DATE = 5;
-    public static final int COL_URI_THUMBNAIL = 6;
-    public static final int COL_THUMBNAIL = 7;
-    public static final int COL_CAPTION_THUMBNAIL = 8;
-    public static final int COL_COPYRIGHT_THUMBNAIL = 9;
-    public static final int COL_URI_PHOTO = 10;
-    public static final int COL_PHOTO = 11;
-    public static final int COL_CAPTION_PHOTO = 12;
-    public static final int COL_COPYRIGHT_PHOTO  = 13;
-    public static final int COL_IS_FAVORITE = 14;
+    public static final int COL_URI_THUMBNAIL = 2;
+    public static final int COL_THUMBNAIL_KEY = 3;
+    public static final int COL_IS_FAVORITE = 4;
+    public static final int COL_DATE_MILLIS = 5;
 
     // List view item position key.
     private static final String LIST_POSITION_KEY = "list_selected_key";
@@ -105,6 +95,12 @@ public class HeadlinesFragment extends Fragment
     // Position of selected item or first visible item in the list view.
     private int mListPosition = ListView.INVALID_POSITION;
 
+    // Number of stories left below the screen when the next page starts loading.
+    private int mPagePrefetchCount;
+
+    // Search query whose matching stories are listed instead of the headlines, if any.
+    private String mSearchQuery;
+
     public HeadlinesFragment() {
     }
 
@@ -126,6 +122,10 @@ public class HeadlinesFragment extends Fragment
         // Set item click event handler for list view.
         mListView.setOnItemClickListener(this);
 
+        // Load more of the list as the user scrolls.
+        mPagePrefetchCount = getResources().getInteger(R.integer.headlines_page_prefetch);
+        mListView.setOnScrollListener(this);
+
         // Get the text view for empty list view message and set the text.
         mEmptyListView = (TextView) rootView.findViewById(R.id.status_listview);
         mEmptyListView.setText(getString(R.string.msg_status_loading));
@@ -185,6 +185,14 @@ public class HeadlinesFragment extends Fragment
         }
     }
 
+    @Override
+    public void onStop() {
+        // Don't leave the thumbnails paused if the list is left while flinging.
+        Picasso.with(getActivity()).resumeTag(HeadlinesAdapter.THUMBNAIL_REQUEST_TAG);
+
+        super.onStop();
+    }
+
     @Override
     public void onSaveInstanceState(Bundle outState) {
         // Save the current news category preference.
@@ -206,31 +214,41 @@ public class HeadlinesFragment extends Fragment
         // Show the data loading message to user.
         mEmptyListView.setText(getString(R.string.msg_status_loading));
 
-        // Sort order for the query.
-        final String sortOrder = NewsEntry.COLUMN_DATE +
-                getActivity().getString(R.string.descending_sort_order);
-
-        // Selection criteria and arguments.
-        final String selection = NewsEntry.COLUMN_IS_FAVORITE + "=?";
-        String[] selectionArgs;
+        if(mSearchQuery != null) {
+            // Get the stories matching the search from any list, ranked by the provider.
+            return new CursorLoader(
+                    getActivity(),
+                    NewsEntry.buildSearchUri(mSearchQuery),
+                    NEWS_PROJECTION,
+                    null,
+                    null,
+                    null);
+        }
 
-        // Set selection based on whether news category is favorite.
+        // Set the list uri based on whether news category is favorite. The loader is only
+        // notified of changes to the stories of its own list.
+        Uri listUri;
         if(mNewsCategoryPreference.equals(getString(R.string.pref_news_category_favorites))) {
             // Only get the favorite news stories.
-            selectionArgs = new String[]{Integer.toString(1)};
+            listUri = NewsEntry.FAVORITES_URI;
         } else {
-            // Get the news stories other than favorites.
-            selectionArgs = new String[]{Integer.toString(0)};
+            // Get the news stories of the category's section other than favorites.
+            listUri = NewsEntry.buildSectionUri(
+                    NewsSyncAdapter.getSectionForCategory(getActivity(), mNewsCategoryPreference));
         }
 
-        // Create loader to retrieve news data from database through content provider.
-        return new CursorLoader(
+        // Load at least as much of the list as the story to be shown needs.
+        int minimumCount = Math.max(mListPosition, MainActivity.isWidgetItemClicked ?
+                MainActivity.widgetItemClickedPosition : ListView.INVALID_POSITION) + 1;
+
+        // Create loader to retrieve news data from database through content provider, newest
+        // first, a page at a time.
+        return new NewsPageLoader(
                 getActivity(),
-                NewsEntry.CONTENT_URI,
+                listUri,
                 NEWS_PROJECTION,
-                selection,
-                selectionArgs,
-                sortOrder);
+                getResources().getInteger(R.integer.headlines_page_size),
+                minimumCount);
     }
 
     @Override
@@ -239,13 +257,19 @@ public class HeadlinesFragment extends Fragment
         if(data != null) {
             // Check if the cursor is empty.
             if(data.moveToFirst() == false) {
+                // Relinquish cursor attached to the adapter.
+                mHeadlinesAdapter.swapCursor(null);
+
+                // Nothing matching a search says nothing about the news data.
+                if(mSearchQuery != null) {
+                    mEmptyListView.setText(getString(R.string.msg_empty_search_results));
+                    return;
+                }
+
                 // Display and log message.
                 mEmptyListView.setText(getString(R.string.msg_empty_news_list));
                 Log.d(LOG_TAG, getString(R.string.log_on_load_finished_empty));
 
-                // Relinquish cursor attached to the adapter.
-                mHeadlinesAdapter.swapCursor(null);
-
                 // Send a local broadcast informing the widget to refresh it's data.
                 Utility.sendDataUpdatedBroadcast(getActivity());
 
@@ -276,9 +300,11 @@ public class HeadlinesFragment extends Fragment
                 MainActivity.widgetItemClickedPosition = ListView.INVALID_POSITION;
             }
 
-            // Move to appropriate list item position.
+            // Move to appropriate list item position, only once so that loading another page
+            // or a change to the list leaves the list where the user scrolled it to.
             if(mListPosition != ListView.INVALID_POSITION) {
                 mListView.setSelection(mListPosition);
+                mListPosition = ListView.INVALID_POSITION;
             }
         } else {
             // Display and log message.
@@ -300,15 +326,50 @@ public class HeadlinesFragment extends Fragment
     }
 
     @Override
-    public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-        // Get the cursor at the click position.
-        Cursor newsCursor = (Cursor) parent.getItemAtPosition(position);
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        // Hold back decoding the thumbnails of the rows flung past, until the list settles.
+        Picasso picasso = Picasso.with(getActivity());
+        if(scrollState == SCROLL_STATE_FLING) {
+            picasso.pauseTag(HeadlinesAdapter.THUMBNAIL_REQUEST_TAG);
+        } else {
+            picasso.resumeTag(HeadlinesAdapter.THUMBNAIL_REQUEST_TAG);
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                         int totalItemCount) {
+        // Load the next page once the user nears the end of the stories loaded so far.
+        if(totalItemCount > 0
+                && firstVisibleItem + visibleItemCount + mPagePrefetchCount >= totalItemCount) {
+            Loader<Cursor> loader = getLoaderManager().getLoader(NEWS_LOADER);
+            if(loader instanceof NewsPageLoader) {
+                ((NewsPageLoader) loader).loadNextPage();
+            }
+        }
+    }
+
+    /**
+     * Lists the stories matching the search query in place of the headlines, or the
+     * headlines again if the query is null or blank.
+     */
+    public void setSearchQuery(String query) {
+        if(query != null && query.length() == 0) {
+            query = null;
+        }
+        if(query == null ? mSearchQuery == null : query.equals(mSearchQuery)) {
+            return;
+        }
+        mSearchQuery = query;
 
-        // Create the news object to pass back to the parent activity.
-        News news = buildNewsObject(newsCursor);
+        // Start from the top of the new list.
+        mListPosition = 0;
+        getLoaderManager().restartLoader(NEWS_LOADER, null, this);
+    }
 
-        // Get the thumbnail image view to extract bitmap for saving into news object and for
-        // using in the shared element transition.
+    @Override
+    public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+        // Get the thumbnail image view for using in the shared element transition.
         ImageView thumbnailView = (ImageView) view.findViewById(R.id.thumbnail_imageview);
 
         // Get the headline text view for using in the shared element transition.
@@ -318,12 +379,6 @@ public class HeadlinesFragment extends Fragment
         String thumbnailTransitionName = null;
         String headlineTransitionName = null;
 
-        // Extract bitmap from thumbnail image view and convert it to byte array.
-        byte[] thumbnailByteArray = Utility.convertToByteArray(thumbnailView);
-
-        // Set the thumbnail byte array into the news object.
-        news.setThumbnailByteArray(thumbnailByteArray);
-
         // Shared element transition for devices running lollipop or above.
         if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             setSharedElementReturnTransition(TransitionInflater.from(getActivity())
@@ -336,9 +391,9 @@ public class HeadlinesFragment extends Fragment
             headlineTransitionName = headlineView.getTransitionName();
         }
 
-        // Notify the parent activity that the user clicked a headline and pass on the news details.
+        // Notify the parent activity that the user clicked a headline and pass on the news id.
         ((OnHeadlineSelectedListener) getActivity()).onHeadlineSelected(
-                news, thumbnailView, thumbnailTransitionName, headlineView, headlineTransitionName);
+                id, thumbnailView, thumbnailTransitionName, headlineView, headlineTransitionName);
     }
 
     /**
@@ -346,29 +401,7 @@ public class HeadlinesFragment extends Fragment
      * notifications from fragment whenever the user selects/taps on a news headline.
      */
     public interface OnHeadlineSelectedListener {
-        void onHeadlineSelected(News news, ImageView thumbnailView, String thumbnailTransition,
+        void onHeadlineSelected(long newsId, ImageView thumbnailView, String thumbnailTransition,
                                 TextView headlineView, String headlineTransition);
     }
-
-    /**
-     * Builds and returns a news object from the cursor passed in.
-     */
-    private News buildNewsObject(Cursor cursor) {
-        // Create and return the news object by extracting the data from the cursor.
-        return new News(
-                cursor.getString(COL_HEADLINE),
-                cursor.getString(COL_SUMMARY),
-                cursor.getString(COL_URI_STORY),
-                cursor.getString(COL_AUTHOR),
-                cursor.getString(COL_DATE),
-                cursor.getString(COL_URI_THUMBNAIL),
-                cursor.getBlob(COL_THUMBNAIL),
-                cursor.getString(COL_CAPTION_THUMBNAIL),
-                cursor.getString(COL_COPYRIGHT_THUMBNAIL),
-                cursor.getString(COL_URI_PHOTO),
-                cursor.getBlob(COL_PHOTO),
-                cursor.getString(COL_CAPTION_PHOTO),
-                cursor.getString(COL_COPYRIGHT_PHOTO),
-                cursor.getInt(COL_IS_FAVORITE));
-    }
 }
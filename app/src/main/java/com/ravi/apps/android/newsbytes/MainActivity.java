@@ -22,9 +22,12 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.PreferenceManager;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.Toolbar;
 import android.transition.TransitionInflater;
 import android.util.Log;
@@ -37,12 +40,15 @@ import android.widget.TextView;
 import com.google.android.gms.ads.AdRequest;
 import com.google.android.gms.ads.AdView;
 import com.ravi.apps.android.newsbytes.service.DeleteFavoriteService;
+import com.ravi.apps.android.newsbytes.service.FavoriteMediaService;
 import com.ravi.apps.android.newsbytes.sync.NewsSyncAdapter;
+import com.ravi.apps.android.newsbytes.sync.SyncScheduler;
 
 public class MainActivity extends AppCompatActivity
         implements HeadlinesFragment.OnHeadlineSelectedListener,
         SharedPreferences.OnSharedPreferenceChangeListener,
-        DeleteFavoritesDialogFragment.DeleteFavoritesDialogListener {
+        DeleteFavoritesDialogFragment.DeleteFavoritesDialogListener,
+        SearchView.OnQueryTextListener {
 
     // Tag for logging messages.
     public static final String LOG_TAG = MainActivity.class.getSimpleName();
@@ -53,6 +59,8 @@ public class MainActivity extends AppCompatActivity
     public static final String IMAGE_XPOS = "image_xpos";
     public static final String IMAGE_YPOS = "image_ypos";
     public static final String IMAGE = "image";
+    public static final String IMAGE_WIDTH = "image_width";
+    public static final String IMAGE_HEIGHT = "image_height";
     public static final String TEXT_XPOS = "text_xpos";
     public static final String TEXT_YPOS = "text_ypos";
     public static final String TEXT = "text";
@@ -78,6 +86,20 @@ public class MainActivity extends AppCompatActivity
     // Ad view displaying banner ad.
     private AdView mAdView;
 
+    // Handler running the search once the user pauses typing.
+    private final Handler mSearchHandler = new Handler();
+
+    // Search query typed so far, run once the user pauses typing.
+    private String mPendingSearchQuery;
+
+    // Runs the pending search query.
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            showSearchResults(mPendingSearchQuery);
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -129,6 +151,9 @@ public class MainActivity extends AppCompatActivity
                 Log.d(LOG_TAG, getString(R.string.log_on_create_widget_item_position)
                         + ((Integer) widgetItemClickedPosition).toString());
             }
+
+            // Resume downloading the images of any favorites still waiting for them.
+            FavoriteMediaService.start(this);
         } else {
             // Check if it's in two pane mode and the preference changed status was saved.
             if(mIsTwoPaneMode && savedInstanceState.containsKey(PREFERENCE_CHANGED_KEY)) {
@@ -141,8 +166,22 @@ public class MainActivity extends AppCompatActivity
         NewsSyncAdapter.initializeSyncAdapter(this);
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        // Warm up a connection to the news server while the app is in the foreground.
+        NewsSyncAdapter.preconnect(this);
+
+        // Record the visit, the sync interval is stretched while the user is away.
+        SyncScheduler.recordEngagement(this);
+    }
+
     @Override
     protected void onDestroy() {
+        // Drop any search still waiting to run.
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+
         // Unregister from receiving events upon any changes to the shared preferences.
         PreferenceManager.getDefaultSharedPreferences(this).unregisterOnSharedPreferenceChangeListener(this);
 
@@ -187,8 +226,25 @@ public class MainActivity extends AppCompatActivity
 
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-        // If the news notifications preference was changed, do nothing.
-        if(key.equals(getString(R.string.pref_notifications_key))) {
+        // If the news notifications or prefetch images preference was changed, do nothing.
+        if(key.equals(getString(R.string.pref_notifications_key))
+                || key.equals(getString(R.string.pref_prefetch_images_key))) {
+            return;
+        }
+
+        // If favorite photos were allowed over metered networks, download those waiting.
+        if(key.equals(getString(R.string.pref_favorite_media_metered_key))) {
+            if(Utility.getFavoriteMediaMeteredPreference(this, key)) {
+                FavoriteMediaService.start(this);
+            }
+            return;
+        }
+
+        // If the sync all categories preference was turned on, sync the remaining categories.
+        if(key.equals(getString(R.string.pref_sync_all_key))) {
+            if(Utility.getSyncAllCategoriesPreference(this, key)) {
+                NewsSyncAdapter.syncImmediately(this, true);
+            }
             return;
         }
 
@@ -197,11 +253,13 @@ public class MainActivity extends AppCompatActivity
             mHasPreferenceChanged = true;
         }
 
-        // Check the current news category preference.
-        if(!Utility.getNewsCategoryPreference(this, key)
+        // Check the current news category preference. If all the categories are synced,
+        // its stories are already in the database and the headlines are simply re-queried.
+        if(!Utility.getSyncAllCategoriesPreference(this, null)
+                && !Utility.getNewsCategoryPreference(this, key)
                 .equals(getString(R.string.pref_news_category_favorites))) {
             // Current preference is not favorites, trigger an immediate sync.
-            NewsSyncAdapter.syncImmediately(this);
+            NewsSyncAdapter.syncImmediately(this, true);
         }
 
         // Preference has changed, inform widget to refresh it's data.
@@ -209,13 +267,13 @@ public class MainActivity extends AppCompatActivity
     }
 
     @Override
-    public void onHeadlineSelected(News news, ImageView thumbnailView, String thumbnailTransition,
+    public void onHeadlineSelected(long newsId, ImageView thumbnailView, String thumbnailTransition,
                                    TextView headlineView, String headlineTransition) {
         // Check if it's in two pane mode.
         if(mIsTwoPaneMode) {
-            // Package the parcelable news data into the arguments bundle.
+            // Package the news story id into the arguments bundle.
             Bundle arguments = new Bundle();
-            arguments.putParcelable(DetailsFragment.NEWS_DETAILS, news);
+            arguments.putLong(DetailsFragment.NEWS_ID, newsId);
 
             // Create the details fragment object.
             DetailsFragment detailsFragment = new DetailsFragment();
@@ -261,8 +319,8 @@ public class MainActivity extends AppCompatActivity
             // Create intent to launch details activity.
             Intent intent = new Intent(this, DetailsActivity.class);
 
-            // Add news details into extra.
-            intent.putExtra(DetailsFragment.NEWS_DETAILS, news);
+            // Add news story id into extra.
+            intent.putExtra(DetailsFragment.NEWS_ID, newsId);
 
             // Shared element transition - check if device is running on lollipop or above
             // and if ALL of the required parameters for the shared element transition are available.
@@ -287,9 +345,50 @@ public class MainActivity extends AppCompatActivity
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the options menu.
         getMenuInflater().inflate(R.menu.menu_main, menu);
+
+        // Search the stored stories as the user types.
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(
+                menu.findItem(R.id.action_search));
+        searchView.setQueryHint(getString(R.string.hint_search));
+        searchView.setOnQueryTextListener(this);
+
+        return true;
+    }
+
+    @Override
+    public boolean onQueryTextSubmit(String query) {
+        // Search right away, and let the search view hide the keyboard.
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        showSearchResults(query);
+        return false;
+    }
+
+    @Override
+    public boolean onQueryTextChange(String newText) {
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+
+        // Go back to the headlines straight away once the query is cleared, otherwise wait
+        // for the user to pause typing so every keystroke doesn't run a query of its own.
+        if(newText.trim().length() == 0) {
+            showSearchResults(null);
+        } else {
+            mPendingSearchQuery = newText;
+            mSearchHandler.postDelayed(mSearchRunnable,
+                    getResources().getInteger(R.integer.search_debounce_millis));
+        }
         return true;
     }
 
+    // Shows the stories matching the search query in the headlines list, or the headlines
+    // again if the query is null.
+    private void showSearchResults(String query) {
+        HeadlinesFragment headlinesFragment = (HeadlinesFragment) getFragmentManager()
+                .findFragmentById(R.id.fragment_headlines);
+        if(headlinesFragment != null) {
+            headlinesFragment.setSearchQuery(query != null ? query.trim() : null);
+        }
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // Get id of the menu item selected.
@@ -334,16 +433,13 @@ public class MainActivity extends AppCompatActivity
         float xPos = loc[0];
         float yPos = loc[1];
 
-        // Get the thumbnail image as a byte array.
-        byte[] imageByteArray = Utility.convertToByteArray(imageView);
-        if(imageByteArray == null) {
-            imageByteArray = new byte[0];
-        }
-
-        // Add details into intent extras.
+        // Add details into intent extras. The image itself isn't passed, only the uri and size
+        // it's cached under, for the details activity to take it from the memory cache.
         intent.putExtra(IMAGE_XPOS, xPos);
         intent.putExtra(IMAGE_YPOS, yPos);
-        intent.putExtra(IMAGE, imageByteArray);
+        intent.putExtra(IMAGE, HeadlinesAdapter.getThumbnailUri(imageView));
+        intent.putExtra(IMAGE_WIDTH, imageView.getWidth());
+        intent.putExtra(IMAGE_HEIGHT, imageView.getHeight());
     }
 
     /**
@@ -21,7 +21,8 @@ import android.os.Parcelable;
 
 /**
  * Stores the detailed information about a news story and implements the parcelable
- * interface to enable it to be passed to other activities through intents.
+ * interface to enable it to be passed to other activities through intents. Images are
+ * referred to by their urls and image store keys only, so the parcel stays small.
  */
 public class News implements Parcelable {
 
@@ -31,41 +32,37 @@ public class News implements Parcelable {
     private final String mUriStory;
     private final String mAuthor;
     private final String mDate;
+    private final Long mDateMillis;
+    private final String mDateDisplay;
     private final String mUriThumbnail;
-    private byte[] mThumbnail;
+    private final String mThumbnailKey;
     private final String mCaptionThumbnail;
     private final String mCopyrightThumbnail;
     private final String mUriPhoto;
-    private byte[] mPhoto;
+    private final String mPhotoKey;
     private final String mCaptionPhoto;
     private final String mCopyrightPhoto;
     private int mIsFavorite;
 
     // Public constructor.
     public News(String headline, String summary, String uriStory, String author, String date,
-                String uriThumbnail, byte[] thumbnail, String captionThumbnail,
-                String copyrightThumbnail, String uriPhoto, byte[] photo, String captionPhoto,
-                String copyrightPhoto, int isFavorite) {
+                Long dateMillis, String dateDisplay, String uriThumbnail, String thumbnailKey,
+                String captionThumbnail, String copyrightThumbnail, String uriPhoto,
+                String photoKey, String captionPhoto, String copyrightPhoto, int isFavorite) {
         // Store the news story details data into respective member variables.
         mHeadline = headline;
         mSummary = summary;
         mUriStory = uriStory;
         mAuthor = author;
         mDate = date;
+        mDateMillis = dateMillis;
+        mDateDisplay = dateDisplay;
         mUriThumbnail = uriThumbnail;
-        if(thumbnail != null) {
-            mThumbnail = thumbnail;
-        } else {
-            mThumbnail = new byte[0];
-        }
+        mThumbnailKey = thumbnailKey;
         mCaptionThumbnail = captionThumbnail;
         mCopyrightThumbnail = copyrightThumbnail;
         mUriPhoto = uriPhoto;
-        if(photo != null) {
-            mPhoto = photo;
-        } else {
-            mPhoto = new byte[0];
-        }
+        mPhotoKey = photoKey;
         mCaptionPhoto = captionPhoto;
         mCopyrightPhoto = copyrightPhoto;
         mIsFavorite = isFavorite;
@@ -80,14 +77,14 @@ public class News implements Parcelable {
         mUriStory = source.readString();
         mAuthor = source.readString();
         mDate = source.readString();
+        mDateMillis = (Long) source.readValue(Long.class.getClassLoader());
+        mDateDisplay = source.readString();
         mUriThumbnail = source.readString();
-        mThumbnail = new byte[source.readInt()];
-        source.readByteArray(mThumbnail);
+        mThumbnailKey = source.readString();
         mCaptionThumbnail = source.readString();
         mCopyrightThumbnail = source.readString();
         mUriPhoto = source.readString();
-        mPhoto = new byte[source.readInt()];
-        source.readByteArray(mPhoto);
+        mPhotoKey = source.readString();
         mCaptionPhoto = source.readString();
         mCopyrightPhoto = source.readString();
         mIsFavorite = source.readInt();
@@ -120,24 +117,14 @@ public class News implements Parcelable {
         dest.writeString(mUriStory);
         dest.writeString(mAuthor);
         dest.writeString(mDate);
+        dest.writeValue(mDateMillis);
+        dest.writeString(mDateDisplay);
         dest.writeString(mUriThumbnail);
-        if(mThumbnail != null) {
-            dest.writeInt(mThumbnail.length);
-            dest.writeByteArray(mThumbnail);
-        } else {
-            dest.writeInt(0);
-            dest.writeByteArray(new byte[0]);
-        }
+        dest.writeString(mThumbnailKey);
         dest.writeString(mCaptionThumbnail);
         dest.writeString(mCopyrightThumbnail);
         dest.writeString(mUriPhoto);
-        if(mPhoto != null) {
-            dest.writeInt(mPhoto.length);
-            dest.writeByteArray(mPhoto);
-        } else {
-            dest.writeInt(0);
-            dest.writeByteArray(new byte[0]);
-        }
+        dest.writeString(mPhotoKey);
         dest.writeString(mCaptionPhoto);
         dest.writeString(mCopyrightPhoto);
         dest.writeInt(mIsFavorite);
@@ -168,14 +155,24 @@ public class News implements Parcelable {
         return mDate;
     }
 
+    // Returns the publication time in epoch milliseconds, or null if unknown.
+    public Long getDateMillis() {
+        return mDateMillis;
+    }
+
+    // Returns the date as displayed.
+    public String getDateDisplay() {
+        return mDateDisplay;
+    }
+
     // Returns the uri for the thumbnail.
     public String getUriThumbnail() {
         return mUriThumbnail;
     }
 
-    // Returns the thumbnail.
-    public byte[] getThumbnail() {
-        return mThumbnail;
+    // Returns the image store key of the thumbnail, for favorites.
+    public String getThumbnailKey() {
+        return mThumbnailKey;
     }
 
     // Returns the caption for the thumbnail.
@@ -193,9 +190,9 @@ public class News implements Parcelable {
         return mUriPhoto;
     }
 
-    // Returns the photo.
-    public byte[] getPhoto() {
-        return mPhoto;
+    // Returns the image store key of the photo, for favorites.
+    public String getPhotoKey() {
+        return mPhotoKey;
     }
 
     // Returns the caption for the photo.
@@ -213,16 +210,6 @@ public class News implements Parcelable {
         return mIsFavorite;
     }
 
-    // Sets the thumbnail as a byte array.
-    public void setThumbnailByteArray(byte[] thumbnail) {
-        mThumbnail = thumbnail;
-    }
-
-    // Sets the photo as a byte array.
-    public void setPhotoByteArray(byte[] photo) {
-        mPhoto = photo;
-    }
-
     // Sets whether news story is marked as favorite.
     public void setIsFavorite(int isFavorite) {
         mIsFavorite = isFavorite;
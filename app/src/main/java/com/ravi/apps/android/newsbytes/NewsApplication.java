@@ -20,15 +20,26 @@ import android.app.Application;
 
 import com.google.android.gms.analytics.GoogleAnalytics;
 import com.google.android.gms.analytics.Tracker;
+import com.ravi.apps.android.newsbytes.net.NewsImageLoader;
+import com.squareup.picasso.Picasso;
 
 /**
- * Holds a single instance of the google analytics tracker instance.
+ * Holds a single instance of the google analytics tracker instance and sets up the image
+ * loading on top of the shared HTTP client.
  */
 public class NewsApplication extends Application {
 
     // Holds the single instance of the tracker.
     private Tracker mTracker;
 
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Make every screen load its images through the one two tier image cache.
+        Picasso.setSingletonInstance(NewsImageLoader.getInstance(this).getPicasso());
+    }
+
     /**
      * Starts the analytics tracking.
      */
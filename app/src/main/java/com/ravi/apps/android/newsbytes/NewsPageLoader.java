@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2015 Ravi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ravi.apps.android.newsbytes;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MergeCursor;
+import android.net.Uri;
+
+import com.ravi.apps.android.newsbytes.data.NewsContract.NewsEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads a list of news stories a page at a time, newest first, for the list to grow as the
+ * user scrolls. Each page is queried after the last story of the page before, so a page takes
+ * as long to load at the end of a long list as at the top. Loading another page keeps the
+ * pages already loaded, while a change to the list queries all of them again.
+ */
+public class NewsPageLoader extends AsyncTaskLoader<Cursor> {
+
+    // Observer reloading the pages when the list changes.
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+
+    // Uri of the list.
+    private final Uri mListUri;
+
+    // Projection of the stories, holding their id and publication time.
+    private final String[] mProjection;
+
+    // Most stories a page holds.
+    private final int mPageSize;
+
+    // Number of pages to load.
+    private int mPageCount;
+
+    // Pages delivered, which the next load may keep.
+    private List<Page> mPages = Collections.emptyList();
+
+    // Whether the pages delivered are still up to date.
+    private boolean mArePagesCurrent;
+
+    // Cursor delivered, over all the pages.
+    private Cursor mCursor;
+
+    /**
+     * Creates a loader of the list, loading enough pages to hold the given number of stories.
+     * The projection must include the id and the publication time of the stories.
+     */
+    public NewsPageLoader(Context context, Uri listUri, String[] projection, int pageSize,
+                          int minimumCount) {
+        super(context);
+        mListUri = listUri;
+        mProjection = projection;
+        mPageSize = pageSize;
+        mPageCount = Math.max(1, (minimumCount + pageSize - 1) / pageSize);
+    }
+
+    /**
+     * Loads the next page, unless it's being loaded or the whole list is loaded already.
+     */
+    public void loadNextPage() {
+        synchronized(this) {
+            if(mPageCount > mPages.size() || !hasMorePages()) {
+                return;
+            }
+            mPageCount++;
+        }
+        forceLoad();
+    }
+
+    /**
+     * Returns whether the list holds more stories than those delivered.
+     */
+    public synchronized boolean hasMorePages() {
+        return mPages.isEmpty() || mPages.get(mPages.size() - 1).nextPageUri != null;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        List<Page> keptPages;
+        int pageCount;
+        synchronized(this) {
+            keptPages = mArePagesCurrent ? mPages : Collections.<Page>emptyList();
+            pageCount = mPageCount;
+        }
+
+        // Query the pages not loaded yet, each one after the last story of the page before.
+        List<Page> pages = new ArrayList<Page>(keptPages);
+        try {
+            Uri pageUri = pages.isEmpty() ?
+                    NewsEntry.buildPageUri(mListUri, mPageSize, null, null) :
+                    pages.get(pages.size() - 1).nextPageUri;
+            while(pages.size() < pageCount && pageUri != null) {
+                Page page = queryPage(pageUri);
+                pages.add(page);
+                pageUri = page.nextPageUri;
+            }
+        } catch(RuntimeException e) {
+            closePages(pages, keptPages);
+            throw e;
+        }
+        return new PagesCursor(pages);
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        List<Page> pages = ((PagesCursor) cursor).pages;
+        if(isReset()) {
+            // The loader was reset while loading, so nothing holds on to the pages.
+            synchronized(this) {
+                closePages(pages, mPages);
+            }
+            return;
+        }
+
+        List<Page> oldPages = pages;
+        if(cursor != mCursor) {
+            synchronized(this) {
+                oldPages = mPages;
+                mPages = pages;
+                mArePagesCurrent = true;
+            }
+            mCursor = cursor;
+        }
+
+        if(isStarted()) {
+            super.deliverResult(cursor);
+        }
+
+        // Close the pages of the old cursor that the new one doesn't hold on to.
+        closePages(oldPages, pages);
+    }
+
+    @Override
+    public void onCanceled(Cursor cursor) {
+        synchronized(this) {
+            closePages(((PagesCursor) cursor).pages, mPages);
+        }
+    }
+
+    @Override
+    public void onContentChanged() {
+        // Query all the pages again, the list may have changed on any of them.
+        synchronized(this) {
+            mArePagesCurrent = false;
+        }
+        super.onContentChanged();
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if(mCursor != null) {
+            deliverResult(mCursor);
+        }
+        if(takeContentChanged() || mCursor == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+
+        List<Page> pages;
+        synchronized(this) {
+            pages = mPages;
+            mPages = Collections.emptyList();
+            mArePagesCurrent = false;
+        }
+        closePages(pages, Collections.<Page>emptyList());
+        mCursor = null;
+    }
+
+    // Queries the page, working out the uri of the page following it while the cursor is
+    // still only used by this thread.
+    private Page queryPage(Uri pageUri) {
+        Cursor cursor = getContext().getContentResolver().query(pageUri, mProjection, null,
+                null, null);
+        if(cursor == null) {
+            throw new IllegalStateException(pageUri.toString());
+        }
+
+        // Fill the cursor window here rather than on the main thread.
+        int count = cursor.getCount();
+        cursor.registerContentObserver(mObserver);
+
+        // Pages after a dated story hold only dated stories, so once one isn't full the
+        // undated stories follow. Any other page that isn't full ends the list.
+        boolean isDatedOnly = pageUri.getQueryParameter(NewsEntry.PARAM_AFTER_DATE) != null;
+        Uri nextPageUri = null;
+        if(count == mPageSize) {
+            cursor.moveToLast();
+            int dateIndex = cursor.getColumnIndexOrThrow(NewsEntry.COLUMN_DATE_MILLIS);
+            Long dateMillis = cursor.isNull(dateIndex) ? null : cursor.getLong(dateIndex);
+            long id = cursor.getLong(cursor.getColumnIndexOrThrow(NewsEntry._ID));
+            nextPageUri = NewsEntry.buildPageUri(mListUri, mPageSize, dateMillis, id);
+        } else if(isDatedOnly) {
+            nextPageUri = NewsEntry.buildPageUri(mListUri, mPageSize, null,
+                    NewsEntry.UNDATED_ID);
+        }
+        return new Page(cursor, nextPageUri);
+    }
+
+    // Closes the pages, other than those kept.
+    private static void closePages(List<Page> pages, List<Page> keptPages) {
+        for(Page page : pages) {
+            if(!keptPages.contains(page) && !page.cursor.isClosed()) {
+                page.cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Page of the list, with the uri of the page following it, or null if it's the last.
+     */
+    private static class Page {
+        final Cursor cursor;
+        final Uri nextPageUri;
+
+        Page(Cursor cursor, Uri nextPageUri) {
+            this.cursor = cursor;
+            this.nextPageUri = nextPageUri;
+        }
+    }
+
+    /**
+     * Cursor over the pages in order. Closing it is left to the loader, as the pages may be
+     * handed on to the next cursor.
+     */
+    private static class PagesCursor extends MergeCursor {
+
+        // Pages the cursor is over.
+        final List<Page> pages;
+
+        PagesCursor(List<Page> pages) {
+            super(toCursors(pages));
+            this.pages = pages;
+        }
+
+        private static Cursor[] toCursors(List<Page> pages) {
+            Cursor[] cursors = new Cursor[pages.size()];
+            for(int i = 0; i < cursors.length; i++) {
+                cursors[i] = pages.get(i).cursor;
+            }
+            return cursors;
+        }
+    }
+}
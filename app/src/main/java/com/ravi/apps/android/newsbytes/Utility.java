@@ -19,18 +19,7 @@ package com.ravi.apps.android.newsbytes;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.graphics.Bitmap;
-import android.graphics.drawable.BitmapDrawable;
 import android.preference.PreferenceManager;
-import android.util.Log;
-import android.widget.ImageView;
-
-import java.io.ByteArrayOutputStream;
-import java.text.DateFormatSymbols;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
 
 /**
  * Provides various utility methods.
@@ -63,6 +52,78 @@ public class Utility {
         return newsNotificationsValue;
     }
 
+    /**
+     * Returns a boolean signifying whether the sync all categories preference is on.
+     */
+    public static boolean getSyncAllCategoriesPreference(Context context, String key) {
+        // Get shared preferences.
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+
+        // Get the sync all categories key and default value from resources.
+        String syncAllKey = null;
+        if(key != null) {
+            syncAllKey = key;
+        } else {
+            syncAllKey = context.getString(R.string.pref_sync_all_key);
+        }
+        String syncAllDefault = context.getString(R.string.pref_sync_all_default);
+        boolean defaultValue = syncAllDefault
+                .equals(context.getString(R.string.pref_notifications_true))? true : false;
+
+        // Retrieve the sync all categories value from shared preferences.
+        boolean syncAllValue = sharedPreferences.getBoolean(syncAllKey, defaultValue);
+
+        return syncAllValue;
+    }
+
+    /**
+     * Returns a boolean signifying whether the prefetch images preference is on.
+     */
+    public static boolean getPrefetchImagesPreference(Context context, String key) {
+        // Get shared preferences.
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+
+        // Get the prefetch images key and default value from resources.
+        String prefetchImagesKey = null;
+        if(key != null) {
+            prefetchImagesKey = key;
+        } else {
+            prefetchImagesKey = context.getString(R.string.pref_prefetch_images_key);
+        }
+        String prefetchImagesDefault = context.getString(R.string.pref_prefetch_images_default);
+        boolean defaultValue = prefetchImagesDefault
+                .equals(context.getString(R.string.pref_notifications_true))? true : false;
+
+        // Retrieve the prefetch images value from shared preferences.
+        boolean prefetchImagesValue = sharedPreferences.getBoolean(prefetchImagesKey, defaultValue);
+
+        return prefetchImagesValue;
+    }
+
+    /**
+     * Returns a boolean signifying whether the photos of favorites may be downloaded
+     * over metered networks.
+     */
+    public static boolean getFavoriteMediaMeteredPreference(Context context, String key) {
+        // Get shared preferences.
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+
+        // Get the favorite media metered key and default value from resources.
+        String favoriteMediaMeteredKey = null;
+        if(key != null) {
+            favoriteMediaMeteredKey = key;
+        } else {
+            favoriteMediaMeteredKey = context.getString(R.string.pref_favorite_media_metered_key);
+        }
+        String favoriteMediaMeteredDefault =
+                context.getString(R.string.pref_favorite_media_metered_default);
+        boolean defaultValue = favoriteMediaMeteredDefault
+                .equals(context.getString(R.string.pref_notifications_true));
+
+        // Retrieve the favorite media metered value from shared preferences.
+        return sharedPreferences.getBoolean(favoriteMediaMeteredKey, defaultValue);
+    }
+
     /**
      * Returns a string containing the current news category preference
      * retrieved from the shared preferences.
@@ -134,106 +195,4 @@ public class Utility {
         // Send local broadcast.
         context.sendBroadcast(dataUpdatedIntent);
     }
-
-    /**
-     * Returns a string after removing all occurrences of a specific string
-     * from the source string.
-     */
-    public static String removeCharsFromString(String source, String remove) {
-        // Create a string builder to hold the result string.
-        StringBuilder result = new StringBuilder();
-
-        // Convert source string into char array and iterate through it.
-        for(char c : source.toCharArray()) {
-            if(remove.indexOf(c) == -1) {
-                result.append(c);
-            }
-        }
-
-        return result.toString();
-    }
-
-    /**
-     * Converts and returns the corresponding byte array for the bitmap
-     * linked to the image view passed in.
-     */
-    public static byte[] convertToByteArray(ImageView imageView) {
-        // Check if image view is valid and has associated drawable. If not return null.
-        if(imageView == null || imageView.getDrawable() == null) {
-            return null;
-        }
-
-        // Get bitmap from the image view.
-        Bitmap bitmap = ((BitmapDrawable)imageView.getDrawable()).getBitmap();
-
-        // Convert bitmap into byte array.
-        byte[] thumbnailByteArray = null;
-        if(bitmap != null) {
-            ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
-            thumbnailByteArray = stream.toByteArray();
-        }
-
-        return thumbnailByteArray;
-    }
-
-    /**
-     * Extracts, formats and returns the date in string format from the raw string passed in.
-     */
-    public static String getFormattedDate(Context context, String inputDate) {
-        try {
-            // Holds the final converted date string.
-            String date = null;
-
-            // Create a string builder to hold the intermediate result string.
-            StringBuilder result = new StringBuilder();
-
-            // Convert source string into char array and iterate through it. Break upon finding
-            // the character 'T'.
-            for(char c : inputDate.toCharArray()) {
-                if(c == 'T') {
-                    break;
-                } else {
-                    result.append(c);
-                }
-            }
-
-            // Parse the string and get the corresponding date object.
-            SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd");
-            Date parse = simpleDateFormat.parse(result.toString());
-
-            // Set the date into the calendar object.
-            Calendar c = Calendar.getInstance();
-            c.setTime(parse);
-
-            // Compose the date string.
-            date = c.get(Calendar.DATE) + " " +
-                    getMonthForInt(c.get(Calendar.MONTH)) + ", " +
-                    c.get(Calendar.YEAR);
-
-            return date;
-
-        } catch(ParseException e) {
-            Log.e(LOG_TAG, context.getString(R.string.msg_err_invalid_date) + e.getLocalizedMessage());
-        }
-
-        return null;
-    }
-
-    /**
-     * Helper method to get month name give the month number.
-     */
-    private static String getMonthForInt(int num) {
-        // Holds the month name.
-        String month = "";
-
-        // Get the date format symbols for months and extract relevant month.
-        DateFormatSymbols dateFormatSymbols = new DateFormatSymbols();
-        String[] months = dateFormatSymbols.getMonths();
-        if(num >= 0 && num <= 11 ) {
-            month = months[num];
-        }
-
-        return month;
-    }
 }
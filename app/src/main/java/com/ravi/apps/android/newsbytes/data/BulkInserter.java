@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 Ravi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ravi.apps.android.newsbytes.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inserts rows into a table through compiled statements, binding the values straight into
+ * them. A statement is compiled once for each set of columns the rows hold and reused for
+ * every row holding the same, where SQLiteDatabase.insert builds and compiles the statement
+ * again for each row. Meant to be used within a transaction by a single thread, and closed
+ * once the rows are inserted.
+ */
+class BulkInserter {
+
+    // Conflict clauses, indexed by the SQLiteDatabase conflict algorithm constants.
+    private static final String[] CONFLICT_CLAUSES =
+            {"", " OR ROLLBACK", " OR ABORT", " OR FAIL", " OR IGNORE", " OR REPLACE"};
+
+    private final SQLiteDatabase mDb;
+
+    // Table the rows are inserted into.
+    private final String mTable;
+
+    // Conflict algorithm of the inserts.
+    private final int mConflictAlgorithm;
+
+    // Statements compiled so far, by the set of columns they insert.
+    private final Map<Set<String>, CompiledInsert> mInserts =
+            new HashMap<Set<String>, CompiledInsert>();
+
+    BulkInserter(SQLiteDatabase db, String table, int conflictAlgorithm) {
+        mDb = db;
+        mTable = table;
+        mConflictAlgorithm = conflictAlgorithm;
+    }
+
+    /**
+     * Inserts the row, returning its id, or -1 if a constraint kept it out or it was ignored.
+     */
+    long insert(ContentValues values) {
+        CompiledInsert insert = mInserts.get(values.keySet());
+        if(insert == null) {
+            insert = new CompiledInsert(values.keySet());
+            mInserts.put(new HashSet<String>(values.keySet()), insert);
+        }
+
+        for(int i = 0; i < insert.columns.length; i++) {
+            DatabaseUtils.bindObjectToProgram(insert.statement, i + 1,
+                    values.get(insert.columns[i]));
+        }
+        try {
+            return insert.statement.executeInsert();
+        } catch(SQLiteConstraintException e) {
+            // Only this row is kept out, as with SQLiteDatabase.insert.
+            return -1;
+        }
+    }
+
+    /**
+     * Releases the compiled statements.
+     */
+    void close() {
+        for(CompiledInsert insert : mInserts.values()) {
+            insert.statement.close();
+        }
+        mInserts.clear();
+    }
+
+    /**
+     * Compiled insert statement, with the columns in the order of its parameters.
+     */
+    private class CompiledInsert {
+        final String[] columns;
+        final SQLiteStatement statement;
+
+        CompiledInsert(Set<String> columnSet) {
+            columns = columnSet.toArray(new String[columnSet.size()]);
+
+            StringBuilder sql = new StringBuilder("INSERT")
+                    .append(CONFLICT_CLAUSES[mConflictAlgorithm])
+                    .append(" INTO ").append(mTable).append(" (");
+            for(int i = 0; i < columns.length; i++) {
+                sql.append(i > 0 ? "," : "").append(columns[i]);
+            }
+            sql.append(") VALUES (");
+            for(int i = 0; i < columns.length; i++) {
+                sql.append(i > 0 ? ",?" : "?");
+            }
+            sql.append(')');
+
+            statement = mDb.compileStatement(sql.toString());
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 Ravi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ravi.apps.android.newsbytes.data;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Stores the images of the favorite news stories as files, named by the SHA-1 hash of their
+ * bytes. The same image is therefore stored only once, however many stories refer to it.
+ * Only the news provider writes into the store.
+ */
+class ImageStore {
+
+    // Directory holding the images, inside the app's files directory.
+    private static final String IMAGE_STORE_DIR = "images";
+
+    // Hex digits for building the keys.
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // Directory holding the images.
+    private final File mDirectory;
+
+    ImageStore(Context context) {
+        mDirectory = new File(context.getFilesDir(), IMAGE_STORE_DIR);
+    }
+
+    /**
+     * Stores the image bytes, unless the same image is already stored, and returns its key.
+     */
+    synchronized String put(byte[] bytes) throws IOException {
+        String key = computeKey(bytes);
+        File file = new File(mDirectory, key);
+        if(file.exists()) {
+            return key;
+        }
+
+        if(!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException(mDirectory.getPath());
+        }
+
+        // Write into a temporary file first, so a partially written image is never served.
+        File tempFile = new File(mDirectory, key + ".tmp");
+        FileOutputStream outputStream = new FileOutputStream(tempFile);
+        try {
+            outputStream.write(bytes);
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+
+        if(!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException(file.getPath());
+        }
+        return key;
+    }
+
+    /**
+     * Returns the file holding the image for the key, or null if the key is not valid.
+     * The file may not exist.
+     */
+    File getFile(String key) {
+        return isValidKey(key) ? new File(mDirectory, key) : null;
+    }
+
+    /**
+     * Deletes the image for the key.
+     */
+    synchronized void delete(String key) {
+        File file = getFile(key);
+        if(file != null) {
+            file.delete();
+        }
+    }
+
+    // Returns the hex encoded SHA-1 hash of the bytes.
+    private static String computeKey(byte[] bytes) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+        } catch(NoSuchAlgorithmException e) {
+            // Every Android platform provides SHA-1.
+            throw new AssertionError(e);
+        }
+
+        char[] key = new char[digest.length * 2];
+        for(int i = 0; i < digest.length; i++) {
+            key[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            key[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new String(key);
+    }
+
+    // Returns whether the key is a hex encoded SHA-1 hash, so it can't point outside the store.
+    private static boolean isValidKey(String key) {
+        if(key == null || key.length() != 40) {
+            return false;
+        }
+        for(int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if(!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -34,6 +34,11 @@ public class NewsContract {
 
     // Path that can be appended to the base content URI for framing the complete URI.
     public static final String PATH_NEWS = "news";
+    public static final String PATH_METRICS = "metrics";
+    public static final String PATH_IMAGES = "images";
+    public static final String PATH_FAVORITES = "favorites";
+    public static final String PATH_SECTION = "section";
+    public static final String PATH_SEARCH = "search";
 
     /**
      * Defines the news table contents.
@@ -54,15 +59,32 @@ public class NewsContract {
         // Author, stored as string.
         public static final String COLUMN_AUTHOR = "author";
 
-        // Date, stored as string.
+        // Date as published, stored as string.
         public static final String COLUMN_DATE = "date";
 
+        // Publication time in epoch milliseconds, stored as integer. Filled in from the date.
+        public static final String COLUMN_DATE_MILLIS = "date_millis";
+
+        // Date as displayed, stored as string. Filled in from the date.
+        public static final String COLUMN_DATE_DISPLAY = "date_display";
+
         // URI for the thumbnail, stored as string.
         public static final String COLUMN_URI_THUMBNAIL = "uri_thumbnail";
 
-        // Thumbnail, stored as blob.
+        // Thumbnail image bytes, accepted on insert and update only. The provider moves them into
+        // the image store and fills in the thumbnail key, size and dimensions instead.
         public static final String COLUMN_THUMBNAIL = "thumbnail";
 
+        // Image store key of the thumbnail, stored as string.
+        public static final String COLUMN_THUMBNAIL_KEY = "thumbnail_key";
+
+        // Size of the thumbnail in bytes, stored as integer.
+        public static final String COLUMN_THUMBNAIL_SIZE = "thumbnail_size";
+
+        // Width and height of the thumbnail in pixels, stored as integer.
+        public static final String COLUMN_THUMBNAIL_WIDTH = "thumbnail_width";
+        public static final String COLUMN_THUMBNAIL_HEIGHT = "thumbnail_height";
+
         // Caption for the thumbnail, stored as string.
         public static final String COLUMN_CAPTION_THUMBNAIL = "caption_thumbnail";
 
@@ -72,18 +94,39 @@ public class NewsContract {
         // URI for the photo, stored as string.
         public static final String COLUMN_URI_PHOTO = "uri_photo";
 
-        // Photo, stored as blob.
+        // Photo image bytes, accepted on insert and update only. The provider moves them into
+        // the image store and fills in the photo key, size and dimensions instead.
         public static final String COLUMN_PHOTO = "photo";
 
+        // Image store key of the photo, stored as string.
+        public static final String COLUMN_PHOTO_KEY = "photo_key";
+
+        // Size of the photo in bytes, stored as integer.
+        public static final String COLUMN_PHOTO_SIZE = "photo_size";
+
+        // Width and height of the photo in pixels, stored as integer.
+        public static final String COLUMN_PHOTO_WIDTH = "photo_width";
+        public static final String COLUMN_PHOTO_HEIGHT = "photo_height";
+
         // Caption for the photo, stored as string.
         public static final String COLUMN_CAPTION_PHOTO = "caption_photo";
 
         // Caption for the photo, stored as string.
         public static final String COLUMN_COPYRIGHT_PHOTO = "copyright_photo";
 
+        // NYT section the story was synced from, stored as string.
+        public static final String COLUMN_SECTION = "section";
+
+        // Section of the favorite stories. Not null, so a story is saved as a favorite once.
+        public static final String SECTION_FAVORITES = "";
+
         // Flag to depict whether it is marked as favorite, stored as integer (0 - false, 1 - true).
         public static final String COLUMN_IS_FAVORITE = "is_favorite";
 
+        // Flag to depict whether the images of a favorite are still to be downloaded into the
+        // image store, stored as integer (0 - false, 1 - true).
+        public static final String COLUMN_MEDIA_PENDING = "media_pending";
+
         // Build the base news URI.
         public static final Uri CONTENT_URI =
                 BASE_CONTENT_URI.buildUpon().appendPath(PATH_NEWS).build();
@@ -96,6 +139,69 @@ public class NewsContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_NEWS;
 
+        // URI of the favorites list. Notified only when a favorite changes.
+        public static final Uri FAVORITES_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_FAVORITES).build();
+
+        // Build the URI of the headlines list of the section. Notified only when a story
+        // of the section changes.
+        public static Uri buildSectionUri(String section) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SECTION).appendPath(section).build();
+        }
+
+        // Extract the section from the section list URI.
+        public static String getSectionFromUri(Uri uri) {
+            return uri.getPathSegments().get(2);
+        }
+
+        // Query parameters of a page of a list, which is ordered newest first: the most
+        // stories the page holds, and the publication time and id of the story it follows.
+        public static final String PARAM_PAGE_SIZE = "page_size";
+        public static final String PARAM_AFTER_DATE = "after_date";
+        public static final String PARAM_AFTER_ID = "after_id";
+
+        // Id the first page of undated stories follows.
+        public static final long UNDATED_ID = Long.MAX_VALUE;
+
+        // Build the URI of a page of the list, following the story with the publication time
+        // and id given. The first page follows no story. The pages following a dated story
+        // hold dated stories only, the undated ones come last and start after UNDATED_ID.
+        public static Uri buildPageUri(Uri listUri, int pageSize, Long afterDateMillis,
+                                       Long afterId) {
+            Uri.Builder builder = listUri.buildUpon()
+                    .appendQueryParameter(PARAM_PAGE_SIZE, Integer.toString(pageSize));
+            if(afterId != null) {
+                builder.appendQueryParameter(PARAM_AFTER_ID, Long.toString(afterId));
+                if(afterDateMillis != null) {
+                    builder.appendQueryParameter(PARAM_AFTER_DATE, Long.toString(afterDateMillis));
+                }
+            }
+            return builder.build();
+        }
+
+        // Query parameter of the news URI setting how an insert clashing with a stored story
+        // is resolved, either replacing the story or ignoring the insert. Without it, the
+        // insert fails.
+        public static final String PARAM_CONFLICT = "conflict";
+        public static final String CONFLICT_REPLACE = "replace";
+        public static final String CONFLICT_IGNORE = "ignore";
+
+        // Build the news URI for inserts resolving a clash with a stored story as given.
+        public static Uri buildInsertUri(String conflict) {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_CONFLICT, conflict).build();
+        }
+
+        // Build the URI of the stories matching the search query, best matches first.
+        // Notified whenever any story changes.
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SEARCH).appendPath(query).build();
+        }
+
+        // Extract the search query from the search URI.
+        public static String getSearchQueryFromUri(Uri uri) {
+            return uri.getPathSegments().get(2);
+        }
+
         public static Uri buildNewsUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -110,6 +216,57 @@ public class NewsContract {
             return Integer.parseInt(uri.getPathSegments().get(1));
         }
     }
+
+    /**
+     * Defines the URIs of the images kept in the image store.
+     */
+    public static final class ImageEntry {
+        // Build the base image URI.
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_IMAGES).build();
+
+        // Item content type, the image format isn't recorded.
+        public static final String CONTENT_ITEM_TYPE = "image/*";
+
+        // Build the URI of the image with the image store key, or return null for no key.
+        public static Uri buildImageUri(String key) {
+            return key != null ? CONTENT_URI.buildUpon().appendPath(key).build() : null;
+        }
+
+        // Extract the image store key from the URI.
+        public static String getKeyFromUri(Uri uri) {
+            return uri.getLastPathSegment();
+        }
+    }
+
+    /**
+     * Defines the sync metrics table contents. Each row holds the time spent in one phase
+     * of one sync run.
+     */
+    public static final class MetricsEntry implements BaseColumns {
+        // Metrics table name.
+        public static final String TABLE_NAME = "metrics";
+
+        // Sync run the row belongs to - the time the run started, stored as integer.
+        public static final String COLUMN_RUN_ID = "run_id";
+
+        // Sync phase, stored as string.
+        public static final String COLUMN_PHASE = "phase";
+
+        // Time spent in the phase in milliseconds, stored as integer.
+        public static final String COLUMN_DURATION_MS = "duration_ms";
+
+        // Bytes transferred in the phase, stored as integer.
+        public static final String COLUMN_BYTES = "bytes";
+
+        // Build the base metrics URI.
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_METRICS).build();
+
+        // Directory content type.
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+    }
 }
 
 
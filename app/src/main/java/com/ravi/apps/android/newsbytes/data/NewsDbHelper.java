@@ -16,23 +16,47 @@
 
 package com.ravi.apps.android.newsbytes.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.graphics.BitmapFactory;
+import android.util.Log;
 
+import com.ravi.apps.android.newsbytes.R;
+import com.ravi.apps.android.newsbytes.data.NewsContract.MetricsEntry;
 import com.ravi.apps.android.newsbytes.data.NewsContract.NewsEntry;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
- * Creates, upgrades and deletes the local news database.
+ * Creates, upgrades and deletes the local news database. A fresh database is created with the
+ * latest schema, an existing one is upgraded one version at a time so the favorites survive.
+ * The database runs in write-ahead logging mode, so the lists and the widget keep reading
+ * from a pool of connections while the sync writes.
  */
 public class NewsDbHelper extends SQLiteOpenHelper {
 
+    // Tag for logging messages.
+    private static final String LOG_TAG = NewsDbHelper.class.getSimpleName();
+
     // Database schema version.
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 8;
 
     // Database name.
     public static final String DATABASE_NAME = "news.db";
 
+    // Index names.
+    static final String INDEX_FAVORITE_DATE = "news_favorite_date_idx";
+    static final String INDEX_SECTION_DATE = "news_section_date_idx";
+    static final String INDEX_STORY = "news_story_idx";
+
+    // Full-text search table over the headlines, summaries and bylines of the news table.
+    static final String FTS_TABLE_NAME = "news_fts";
+
     // SQL statement for creating the movie table.
     private static final String SQL_CREATE_NEWS_TABLE =
             "CREATE TABLE " + NewsEntry.TABLE_NAME + " (" +
@@ -43,45 +67,460 @@ public class NewsDbHelper extends SQLiteOpenHelper {
                     NewsEntry.COLUMN_AUTHOR + " TEXT, " +
                     NewsEntry.COLUMN_DATE + " TEXT, " +
                     NewsEntry.COLUMN_URI_THUMBNAIL + " TEXT, " +
-                    NewsEntry.COLUMN_THUMBNAIL + " BLOB, " +
+                    NewsEntry.COLUMN_THUMBNAIL_KEY + " TEXT, " +
+                    NewsEntry.COLUMN_THUMBNAIL_SIZE + " INTEGER, " +
+                    NewsEntry.COLUMN_THUMBNAIL_WIDTH + " INTEGER, " +
+                    NewsEntry.COLUMN_THUMBNAIL_HEIGHT + " INTEGER, " +
                     NewsEntry.COLUMN_CAPTION_THUMBNAIL + " TEXT, " +
                     NewsEntry.COLUMN_COPYRIGHT_THUMBNAIL + " TEXT, " +
                     NewsEntry.COLUMN_URI_PHOTO + " TEXT, " +
-                    NewsEntry.COLUMN_PHOTO + " BLOB, " +
+                    NewsEntry.COLUMN_PHOTO_KEY + " TEXT, " +
+                    NewsEntry.COLUMN_PHOTO_SIZE + " INTEGER, " +
+                    NewsEntry.COLUMN_PHOTO_WIDTH + " INTEGER, " +
+                    NewsEntry.COLUMN_PHOTO_HEIGHT + " INTEGER, " +
                     NewsEntry.COLUMN_CAPTION_PHOTO + " TEXT, " +
                     NewsEntry.COLUMN_COPYRIGHT_PHOTO + " TEXT, " +
-                    NewsEntry.COLUMN_IS_FAVORITE + " INTEGER NOT NULL);";
+                    NewsEntry.COLUMN_SECTION + " TEXT, " +
+                    NewsEntry.COLUMN_IS_FAVORITE + " INTEGER NOT NULL, " +
+                    NewsEntry.COLUMN_DATE_MILLIS + " INTEGER, " +
+                    NewsEntry.COLUMN_DATE_DISPLAY + " TEXT, " +
+                    NewsEntry.COLUMN_MEDIA_PENDING + " INTEGER NOT NULL DEFAULT 0);";
+
+    // SQL statement for creating the metrics table.
+    private static final String SQL_CREATE_METRICS_TABLE =
+            "CREATE TABLE " + MetricsEntry.TABLE_NAME + " (" +
+                    MetricsEntry._ID + " INTEGER PRIMARY KEY, " +
+                    MetricsEntry.COLUMN_RUN_ID + " INTEGER NOT NULL, " +
+                    MetricsEntry.COLUMN_PHASE + " TEXT NOT NULL, " +
+                    MetricsEntry.COLUMN_DURATION_MS + " INTEGER NOT NULL, " +
+                    MetricsEntry.COLUMN_BYTES + " INTEGER NOT NULL DEFAULT 0);";
+
+    // SQL statement for the index serving the favorites list, newest first.
+    private static final String SQL_CREATE_FAVORITE_DATE_INDEX =
+            "CREATE INDEX " + INDEX_FAVORITE_DATE + " ON " + NewsEntry.TABLE_NAME + " (" +
+                    NewsEntry.COLUMN_IS_FAVORITE + ", " +
+                    NewsEntry.COLUMN_DATE_MILLIS + ");";
+
+    // SQL statement for the index serving the headlines list of a section, newest first.
+    private static final String SQL_CREATE_SECTION_DATE_INDEX =
+            "CREATE INDEX " + INDEX_SECTION_DATE + " ON " + NewsEntry.TABLE_NAME + " (" +
+                    NewsEntry.COLUMN_IS_FAVORITE + ", " +
+                    NewsEntry.COLUMN_SECTION + ", " +
+                    NewsEntry.COLUMN_DATE_MILLIS + ");";
+
+    // SQL statement for the index keeping a story unique within a section or the favorites.
+    // A story may be in several sections and saved as a favorite too, so the story uri alone
+    // can't be unique. It also serves the merge of a section and the delete of a favorite.
+    private static final String SQL_CREATE_STORY_INDEX =
+            "CREATE UNIQUE INDEX " + INDEX_STORY + " ON " + NewsEntry.TABLE_NAME + " (" +
+                    NewsEntry.COLUMN_IS_FAVORITE + ", " +
+                    NewsEntry.COLUMN_SECTION + ", " +
+                    NewsEntry.COLUMN_URI_STORY + ");";
+
+    // SQL statement for creating the full-text search table. It holds only the index and
+    // reads the text from the news table, the triggers below keep the two in step.
+    private static final String SQL_CREATE_FTS_TABLE =
+            "CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts4(" +
+                    "content=\"" + NewsEntry.TABLE_NAME + "\", " +
+                    NewsEntry.COLUMN_HEADLINE + ", " +
+                    NewsEntry.COLUMN_SUMMARY + ", " +
+                    NewsEntry.COLUMN_AUTHOR + ");";
+
+    // Columns of the news table indexed for full-text search.
+    private static final String FTS_COLUMNS =
+            NewsEntry.COLUMN_HEADLINE + ", " +
+                    NewsEntry.COLUMN_SUMMARY + ", " +
+                    NewsEntry.COLUMN_AUTHOR;
+
+    // SQL statements for the triggers keeping the full-text search table in step with the
+    // news table. The old text is removed before a row changes, while it can still be read.
+    private static final String SQL_CREATE_FTS_INSERT_TRIGGER =
+            "CREATE TRIGGER " + FTS_TABLE_NAME + "_ai AFTER INSERT ON " +
+                    NewsEntry.TABLE_NAME + " BEGIN " +
+                    "INSERT INTO " + FTS_TABLE_NAME + " (docid, " + FTS_COLUMNS + ") VALUES (" +
+                    "new." + NewsEntry._ID + ", " +
+                    "new." + NewsEntry.COLUMN_HEADLINE + ", " +
+                    "new." + NewsEntry.COLUMN_SUMMARY + ", " +
+                    "new." + NewsEntry.COLUMN_AUTHOR + "); END;";
+
+    private static final String SQL_CREATE_FTS_DELETE_TRIGGER =
+            "CREATE TRIGGER " + FTS_TABLE_NAME + "_bd BEFORE DELETE ON " +
+                    NewsEntry.TABLE_NAME + " BEGIN " +
+                    "DELETE FROM " + FTS_TABLE_NAME + " WHERE docid=old." + NewsEntry._ID +
+                    "; END;";
+
+    private static final String SQL_CREATE_FTS_BEFORE_UPDATE_TRIGGER =
+            "CREATE TRIGGER " + FTS_TABLE_NAME + "_bu BEFORE UPDATE OF " + FTS_COLUMNS +
+                    " ON " + NewsEntry.TABLE_NAME + " BEGIN " +
+                    "DELETE FROM " + FTS_TABLE_NAME + " WHERE docid=old." + NewsEntry._ID +
+                    "; END;";
+
+    private static final String SQL_CREATE_FTS_AFTER_UPDATE_TRIGGER =
+            "CREATE TRIGGER " + FTS_TABLE_NAME + "_au AFTER UPDATE OF " + FTS_COLUMNS +
+                    " ON " + NewsEntry.TABLE_NAME + " BEGIN " +
+                    "INSERT INTO " + FTS_TABLE_NAME + " (docid, " + FTS_COLUMNS + ") VALUES (" +
+                    "new." + NewsEntry._ID + ", " +
+                    "new." + NewsEntry.COLUMN_HEADLINE + ", " +
+                    "new." + NewsEntry.COLUMN_SUMMARY + ", " +
+                    "new." + NewsEntry.COLUMN_AUTHOR + "); END;";
 
     // SQL statement for deleting the movie table.
     private static final String SQL_DELETE_NEWS_TABLE =
             "DROP TABLE IF EXISTS " + NewsEntry.TABLE_NAME;
 
+    // SQL statement for deleting the full-text search table.
+    private static final String SQL_DELETE_FTS_TABLE =
+            "DROP TABLE IF EXISTS " + FTS_TABLE_NAME;
+
+    // SQL statement for deleting the metrics table.
+    private static final String SQL_DELETE_METRICS_TABLE =
+            "DROP TABLE IF EXISTS " + MetricsEntry.TABLE_NAME;
+
+    // Columns of the version 1 news table holding the image bytes.
+    private static final String V1_COLUMN_THUMBNAIL = "thumbnail";
+    private static final String V1_COLUMN_PHOTO = "photo";
+
+    // News table columns of version 4, copied over when the image bytes are dropped.
+    private static final String V4_NEWS_COLUMNS =
+            NewsEntry._ID + ", " +
+                    NewsEntry.COLUMN_HEADLINE + ", " +
+                    NewsEntry.COLUMN_SUMMARY + ", " +
+                    NewsEntry.COLUMN_URI_STORY + ", " +
+                    NewsEntry.COLUMN_AUTHOR + ", " +
+                    NewsEntry.COLUMN_DATE + ", " +
+                    NewsEntry.COLUMN_URI_THUMBNAIL + ", " +
+                    NewsEntry.COLUMN_THUMBNAIL_KEY + ", " +
+                    NewsEntry.COLUMN_THUMBNAIL_SIZE + ", " +
+                    NewsEntry.COLUMN_THUMBNAIL_WIDTH + ", " +
+                    NewsEntry.COLUMN_THUMBNAIL_HEIGHT + ", " +
+                    NewsEntry.COLUMN_CAPTION_THUMBNAIL + ", " +
+                    NewsEntry.COLUMN_COPYRIGHT_THUMBNAIL + ", " +
+                    NewsEntry.COLUMN_URI_PHOTO + ", " +
+                    NewsEntry.COLUMN_PHOTO_KEY + ", " +
+                    NewsEntry.COLUMN_PHOTO_SIZE + ", " +
+                    NewsEntry.COLUMN_PHOTO_WIDTH + ", " +
+                    NewsEntry.COLUMN_PHOTO_HEIGHT + ", " +
+                    NewsEntry.COLUMN_CAPTION_PHOTO + ", " +
+                    NewsEntry.COLUMN_COPYRIGHT_PHOTO + ", " +
+                    NewsEntry.COLUMN_SECTION + ", " +
+                    NewsEntry.COLUMN_IS_FAVORITE;
+
+    // SQL statement for creating the version 4 news table under a temporary name.
+    private static final String SQL_CREATE_V4_NEWS_TABLE =
+            "CREATE TABLE " + NewsEntry.TABLE_NAME + "_v4 (" +
+                    NewsEntry._ID + " INTEGER PRIMARY KEY, " +
+                    NewsEntry.COLUMN_HEADLINE + " TEXT NOT NULL, " +
+                    NewsEntry.COLUMN_SUMMARY + " TEXT, " +
+                    NewsEntry.COLUMN_URI_STORY + " TEXT, " +
+                    NewsEntry.COLUMN_AUTHOR + " TEXT, " +
+                    NewsEntry.COLUMN_DATE + " TEXT, " +
+                    NewsEntry.COLUMN_URI_THUMBNAIL + " TEXT, " +
+                    NewsEntry.COLUMN_THUMBNAIL_KEY + " TEXT, " +
+                    NewsEntry.COLUMN_THUMBNAIL_SIZE + " INTEGER, " +
+                    NewsEntry.COLUMN_THUMBNAIL_WIDTH + " INTEGER, " +
+                    NewsEntry.COLUMN_THUMBNAIL_HEIGHT + " INTEGER, " +
+                    NewsEntry.COLUMN_CAPTION_THUMBNAIL + " TEXT, " +
+                    NewsEntry.COLUMN_COPYRIGHT_THUMBNAIL + " TEXT, " +
+                    NewsEntry.COLUMN_URI_PHOTO + " TEXT, " +
+                    NewsEntry.COLUMN_PHOTO_KEY + " TEXT, " +
+                    NewsEntry.COLUMN_PHOTO_SIZE + " INTEGER, " +
+                    NewsEntry.COLUMN_PHOTO_WIDTH + " INTEGER, " +
+                    NewsEntry.COLUMN_PHOTO_HEIGHT + " INTEGER, " +
+                    NewsEntry.COLUMN_CAPTION_PHOTO + " TEXT, " +
+                    NewsEntry.COLUMN_COPYRIGHT_PHOTO + " TEXT, " +
+                    NewsEntry.COLUMN_SECTION + " TEXT, " +
+                    NewsEntry.COLUMN_IS_FAVORITE + " INTEGER NOT NULL);";
+
+    private final Context mContext;
+
     public NewsDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mContext = context;
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Give the connection writing the sync batches a larger page cache. The reader
+        // connections keep the platform default, which is plenty for the list queries.
+        db.execSQL("PRAGMA cache_size=-" +
+                mContext.getResources().getInteger(R.integer.db_writer_cache_size_kb));
+
+        // Fire the delete triggers for rows an insert replaces too, so the full-text search
+        // table doesn't keep the replaced stories.
+        db.execSQL("PRAGMA recursive_triggers=ON");
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
-        // Create the movie, trailer and review tables.
+        // Create the news and metrics tables along with their indexes.
         db.execSQL(SQL_CREATE_NEWS_TABLE);
+        db.execSQL(SQL_CREATE_METRICS_TABLE);
+        db.execSQL(SQL_CREATE_FAVORITE_DATE_INDEX);
+        db.execSQL(SQL_CREATE_SECTION_DATE_INDEX);
+        db.execSQL(SQL_CREATE_STORY_INDEX);
+        createFtsTable(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // Delete the data on upgrade as it's a cache for web data.
-        db.execSQL(SQL_DELETE_NEWS_TABLE);
-
-        // Create the database with new schema.
-        onCreate(db);
+        // Step through each version in turn, all within the transaction of the upgrade.
+        for(int version = oldVersion + 1; version <= newVersion; version++) {
+            switch(version) {
+                case 2:
+                    upgradeToVersion2(db);
+                    break;
+                case 3:
+                    upgradeToVersion3(db);
+                    break;
+                case 4:
+                    upgradeToVersion4(db);
+                    break;
+                case 5:
+                    upgradeToVersion5(db);
+                    break;
+                case 6:
+                    upgradeToVersion6(db);
+                    break;
+                case 7:
+                    upgradeToVersion7(db);
+                    break;
+                case 8:
+                    upgradeToVersion8(db);
+                    break;
+                default:
+                    throw new IllegalStateException(Integer.toString(version));
+            }
+        }
     }
 
     @Override
     public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        onUpgrade(db, oldVersion, newVersion);
+        // A newer schema can't be migrated back, so start over with an empty database.
+        db.execSQL(SQL_DELETE_FTS_TABLE);
+        db.execSQL(SQL_DELETE_NEWS_TABLE);
+        db.execSQL(SQL_DELETE_METRICS_TABLE);
+        onCreate(db);
     }
-}
 
+    /**
+     * Version 2 records the section a story was synced from. The synced stories stored before
+     * have no section, so no list or sync would ever find them again. They're deleted, the next
+     * sync fetches them back into their sections.
+     */
+    private void upgradeToVersion2(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + NewsEntry.TABLE_NAME + " ADD COLUMN " +
+                NewsEntry.COLUMN_SECTION + " TEXT");
+        db.delete(NewsEntry.TABLE_NAME, NewsEntry.COLUMN_IS_FAVORITE + "=0", null);
+    }
+
+    // Version 3 adds the metrics table.
+    private void upgradeToVersion3(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_METRICS_TABLE);
+    }
+
+    /**
+     * Version 4 moves the image bytes out of the news table into the image store. The table
+     * is rebuilt without the bytes columns, as SQLite can't drop a column.
+     */
+    private void upgradeToVersion4(SQLiteDatabase db) {
+        String[] addedColumns = {
+                NewsEntry.COLUMN_THUMBNAIL_KEY + " TEXT",
+                NewsEntry.COLUMN_THUMBNAIL_SIZE + " INTEGER",
+                NewsEntry.COLUMN_THUMBNAIL_WIDTH + " INTEGER",
+                NewsEntry.COLUMN_THUMBNAIL_HEIGHT + " INTEGER",
+                NewsEntry.COLUMN_PHOTO_KEY + " TEXT",
+                NewsEntry.COLUMN_PHOTO_SIZE + " INTEGER",
+                NewsEntry.COLUMN_PHOTO_WIDTH + " INTEGER",
+                NewsEntry.COLUMN_PHOTO_HEIGHT + " INTEGER"
+        };
+        for(String column : addedColumns) {
+            db.execSQL("ALTER TABLE " + NewsEntry.TABLE_NAME + " ADD COLUMN " + column);
+        }
+
+        // Only the favorites ever held image bytes. Move them one story at a time, as a
+        // photo may be too large to share a cursor window with another.
+        List<Long> ids = new ArrayList<Long>();
+        Cursor cursor = db.query(NewsEntry.TABLE_NAME,
+                new String[]{NewsEntry._ID},
+                V1_COLUMN_THUMBNAIL + " IS NOT NULL OR " + V1_COLUMN_PHOTO + " IS NOT NULL",
+                null, null, null, null);
+        try {
+            while(cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        ImageStore imageStore = new ImageStore(mContext);
+        for(long id : ids) {
+            String[] selectionArgs = new String[]{Long.toString(id)};
+            ContentValues values = new ContentValues();
+            moveImage(db, imageStore, selectionArgs, values, V1_COLUMN_THUMBNAIL,
+                    NewsEntry.COLUMN_THUMBNAIL_KEY, NewsEntry.COLUMN_THUMBNAIL_SIZE,
+                    NewsEntry.COLUMN_THUMBNAIL_WIDTH, NewsEntry.COLUMN_THUMBNAIL_HEIGHT);
+            moveImage(db, imageStore, selectionArgs, values, V1_COLUMN_PHOTO,
+                    NewsEntry.COLUMN_PHOTO_KEY, NewsEntry.COLUMN_PHOTO_SIZE,
+                    NewsEntry.COLUMN_PHOTO_WIDTH, NewsEntry.COLUMN_PHOTO_HEIGHT);
+            if(values.size() > 0) {
+                db.update(NewsEntry.TABLE_NAME, values, NewsEntry._ID + "=?", selectionArgs);
+            }
+        }
+
+        // Rebuild the table without the bytes columns.
+        db.execSQL(SQL_CREATE_V4_NEWS_TABLE);
+        db.execSQL("INSERT INTO " + NewsEntry.TABLE_NAME + "_v4 (" + V4_NEWS_COLUMNS +
+                ") SELECT " + V4_NEWS_COLUMNS + " FROM " + NewsEntry.TABLE_NAME);
+        db.execSQL(SQL_DELETE_NEWS_TABLE);
+        db.execSQL("ALTER TABLE " + NewsEntry.TABLE_NAME + "_v4 RENAME TO " +
+                NewsEntry.TABLE_NAME);
+    }
 
+    // Moves the bytes of a single image of the story into the image store.
+    private void moveImage(SQLiteDatabase db, ImageStore imageStore, String[] selectionArgs,
+                           ContentValues values, String bytesColumn, String keyColumn,
+                           String sizeColumn, String widthColumn, String heightColumn) {
+        byte[] bytes = null;
+        Cursor cursor = db.query(NewsEntry.TABLE_NAME, new String[]{bytesColumn},
+                NewsEntry._ID + "=?", selectionArgs, null, null, null);
+        try {
+            if(cursor.moveToFirst() && !cursor.isNull(0)) {
+                bytes = cursor.getBlob(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        if(bytes == null || bytes.length == 0) {
+            return;
+        }
 
+        // Losing an image is better than failing the upgrade, the favorite is kept either way.
+        String key;
+        try {
+            key = imageStore.put(bytes);
+        } catch(IOException e) {
+            Log.e(LOG_TAG, mContext.getString(R.string.log_image_migration_failed) +
+                    selectionArgs[0]);
+            return;
+        }
 
+        // Read the dimensions without decoding the image.
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
 
+        values.put(keyColumn, key);
+        values.put(sizeColumn, bytes.length);
+        values.put(widthColumn, options.outWidth);
+        values.put(heightColumn, options.outHeight);
+    }
+
+    /**
+     * Version 5 indexes the news table for the headlines and favorites lists, and keeps a
+     * story unique within its section or the favorites. Favorites are given the empty
+     * section, so the unique index covers them, and any repeats are dropped beforehand.
+     */
+    private void upgradeToVersion5(SQLiteDatabase db) {
+        ContentValues values = new ContentValues();
+        values.put(NewsEntry.COLUMN_SECTION, NewsEntry.SECTION_FAVORITES);
+        db.update(NewsEntry.TABLE_NAME, values,
+                NewsEntry.COLUMN_IS_FAVORITE + "=1 AND " + NewsEntry.COLUMN_SECTION + " IS NULL",
+                null);
+
+        // Keep the oldest row of each story, stories without a uri are left alone.
+        db.execSQL("DELETE FROM " + NewsEntry.TABLE_NAME +
+                " WHERE " + NewsEntry.COLUMN_URI_STORY + " IS NOT NULL" +
+                " AND " + NewsEntry._ID + " NOT IN (SELECT MIN(" + NewsEntry._ID + ") FROM " +
+                NewsEntry.TABLE_NAME + " WHERE " + NewsEntry.COLUMN_URI_STORY + " IS NOT NULL" +
+                " GROUP BY " + NewsEntry.COLUMN_IS_FAVORITE + ", " + NewsEntry.COLUMN_SECTION +
+                ", " + NewsEntry.COLUMN_URI_STORY + ")");
+
+        db.execSQL("CREATE INDEX " + INDEX_FAVORITE_DATE + " ON " + NewsEntry.TABLE_NAME +
+                " (" + NewsEntry.COLUMN_IS_FAVORITE + ", " + NewsEntry.COLUMN_DATE + ")");
+        db.execSQL("CREATE INDEX " + INDEX_SECTION_DATE + " ON " + NewsEntry.TABLE_NAME +
+                " (" + NewsEntry.COLUMN_IS_FAVORITE + ", " + NewsEntry.COLUMN_SECTION + ", " +
+                NewsEntry.COLUMN_DATE + ")");
+        db.execSQL(SQL_CREATE_STORY_INDEX);
+    }
+
+    /**
+     * Version 6 stores the publication time for sorting and the date as displayed, and the
+     * urls without escape characters. The lists are indexed on the publication time instead.
+     */
+    private void upgradeToVersion6(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + NewsEntry.TABLE_NAME + " ADD COLUMN " +
+                NewsEntry.COLUMN_DATE_MILLIS + " INTEGER");
+        db.execSQL("ALTER TABLE " + NewsEntry.TABLE_NAME + " ADD COLUMN " +
+                NewsEntry.COLUMN_DATE_DISPLAY + " TEXT");
+
+        // Normalize the stored stories the way the sync does.
+        NewsNormalizer newsNormalizer = new NewsNormalizer(mContext);
+        Cursor cursor = db.query(NewsEntry.TABLE_NAME,
+                new String[]{NewsEntry._ID, NewsEntry.COLUMN_DATE, NewsEntry.COLUMN_URI_STORY,
+                        NewsEntry.COLUMN_URI_THUMBNAIL, NewsEntry.COLUMN_URI_PHOTO},
+                null, null, null, null, null);
+        try {
+            while(cursor.moveToNext()) {
+                String[] selectionArgs = new String[]{cursor.getString(0)};
+                ContentValues values = new ContentValues();
+                values.put(NewsEntry.COLUMN_DATE, cursor.getString(1));
+                values.put(NewsEntry.COLUMN_URI_THUMBNAIL, cursor.getString(3));
+                values.put(NewsEntry.COLUMN_URI_PHOTO, cursor.getString(4));
+                newsNormalizer.normalize(values);
+                db.update(NewsEntry.TABLE_NAME, values, NewsEntry._ID + "=?", selectionArgs);
+
+                // The story uri is unique within a section, keep it as is if unescaping it
+                // would clash with another story.
+                String uriStory = cursor.getString(2);
+                if(uriStory != null && uriStory.indexOf('\\') != -1) {
+                    values = new ContentValues();
+                    values.put(NewsEntry.COLUMN_URI_STORY, uriStory.replace("\\", ""));
+                    db.updateWithOnConflict(NewsEntry.TABLE_NAME, values, NewsEntry._ID + "=?",
+                            selectionArgs, SQLiteDatabase.CONFLICT_IGNORE);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        db.execSQL("DROP INDEX IF EXISTS " + INDEX_FAVORITE_DATE);
+        db.execSQL("DROP INDEX IF EXISTS " + INDEX_SECTION_DATE);
+        db.execSQL(SQL_CREATE_FAVORITE_DATE_INDEX);
+        db.execSQL(SQL_CREATE_SECTION_DATE_INDEX);
+    }
+
+    /**
+     * Version 7 adds the full-text search table, indexing the stories already stored.
+     */
+    private void upgradeToVersion7(SQLiteDatabase db) {
+        createFtsTable(db);
+        db.execSQL("INSERT INTO " + FTS_TABLE_NAME + " (" + FTS_TABLE_NAME +
+                ") VALUES ('rebuild')");
+    }
+
+    /**
+     * Version 8 marks the favorites waiting for their images to be downloaded. Favorites
+     * saved before whose images are missing are marked too, so they're downloaded now.
+     */
+    private void upgradeToVersion8(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + NewsEntry.TABLE_NAME + " ADD COLUMN " +
+                NewsEntry.COLUMN_MEDIA_PENDING + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("UPDATE " + NewsEntry.TABLE_NAME + " SET " +
+                NewsEntry.COLUMN_MEDIA_PENDING + "=1 WHERE " +
+                NewsEntry.COLUMN_IS_FAVORITE + "=1 AND ((" +
+                NewsEntry.COLUMN_URI_THUMBNAIL + " IS NOT NULL AND " +
+                NewsEntry.COLUMN_THUMBNAIL_KEY + " IS NULL) OR (" +
+                NewsEntry.COLUMN_URI_PHOTO + " IS NOT NULL AND " +
+                NewsEntry.COLUMN_PHOTO_KEY + " IS NULL))");
+    }
+
+    // Creates the full-text search table along with the triggers keeping it in step.
+    private static void createFtsTable(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_FTS_TABLE);
+        db.execSQL(SQL_CREATE_FTS_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_FTS_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_FTS_BEFORE_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_FTS_AFTER_UPDATE_TRIGGER);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 Ravi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ravi.apps.android.newsbytes.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+
+import com.ravi.apps.android.newsbytes.R;
+import com.ravi.apps.android.newsbytes.data.NewsContract.NewsEntry;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Prepares news stories for storage, so that nothing has to be parsed or rebuilt when they
+ * are shown. Fills in the publication time as epoch milliseconds for sorting, and the date
+ * as it's displayed, and removes the escape characters from the urls.
+ * Holds date formats, so an instance must not be shared between threads.
+ */
+public class NewsNormalizer {
+
+    // Tag for logging messages.
+    private static final String LOG_TAG = NewsNormalizer.class.getSimpleName();
+
+    // Separates the day from the time in the published date.
+    private static final char TIME_SEPARATOR = 'T';
+
+    // Published date, with the colon taken out of the zone offset, e.g. 2015-10-05T05:00:00-0400.
+    private final SimpleDateFormat mTimestampFormat =
+            new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US);
+
+    // Day of the published date.
+    private final SimpleDateFormat mDayFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+
+    // Date as it's displayed, e.g. 5 October, 2015.
+    private final SimpleDateFormat mDisplayFormat = new SimpleDateFormat("d MMMM, yyyy");
+
+    private final Context mContext;
+
+    public NewsNormalizer(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Normalizes the news story values in place, from the date and the urls they hold.
+     */
+    public void normalize(ContentValues newsValues) {
+        String date = newsValues.getAsString(NewsEntry.COLUMN_DATE);
+        newsValues.put(NewsEntry.COLUMN_DATE_MILLIS, getDateMillis(date));
+        newsValues.put(NewsEntry.COLUMN_DATE_DISPLAY, getDisplayDate(date));
+
+        unescapeUrl(newsValues, NewsEntry.COLUMN_URI_STORY);
+        unescapeUrl(newsValues, NewsEntry.COLUMN_URI_THUMBNAIL);
+        unescapeUrl(newsValues, NewsEntry.COLUMN_URI_PHOTO);
+    }
+
+    /**
+     * Returns the publication time in epoch milliseconds, or null if the date can't be parsed.
+     * Falls back to the start of the day if the date has no time.
+     */
+    public Long getDateMillis(String date) {
+        if(date == null) {
+            return null;
+        }
+
+        // SimpleDateFormat only reads zone offsets without a colon.
+        String timestamp = date;
+        int length = timestamp.length();
+        if(length > 6 && timestamp.charAt(length - 3) == ':'
+                && (timestamp.charAt(length - 6) == '+' || timestamp.charAt(length - 6) == '-')) {
+            timestamp = timestamp.substring(0, length - 3) + timestamp.substring(length - 2);
+        }
+
+        try {
+            return mTimestampFormat.parse(timestamp).getTime();
+        } catch(ParseException e) {
+            Date day = parseDay(date);
+            return day != null ? day.getTime() : null;
+        }
+    }
+
+    /**
+     * Returns the date as it's displayed, or null if the date can't be parsed.
+     */
+    public String getDisplayDate(String date) {
+        if(date == null) {
+            return null;
+        }
+        Date day = parseDay(date);
+        return day != null ? mDisplayFormat.format(day) : null;
+    }
+
+    // Returns the day of the published date, or null if it can't be parsed.
+    private Date parseDay(String date) {
+        int separatorIndex = date.indexOf(TIME_SEPARATOR);
+        try {
+            return mDayFormat.parse(separatorIndex != -1 ? date.substring(0, separatorIndex) : date);
+        } catch(ParseException e) {
+            Log.e(LOG_TAG, mContext.getString(R.string.msg_err_invalid_date) + date);
+            return null;
+        }
+    }
+
+    // Removes the escape characters from the url in the values, if present.
+    private static void unescapeUrl(ContentValues newsValues, String column) {
+        String url = newsValues.getAsString(column);
+        if(url != null) {
+            newsValues.put(column, url.replace("\\", ""));
+        }
+    }
+}
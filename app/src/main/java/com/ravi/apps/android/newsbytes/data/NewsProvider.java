@@ -17,17 +17,45 @@
 package com.ravi.apps.android.newsbytes.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 
 import com.ravi.apps.android.newsbytes.R;
+import com.ravi.apps.android.newsbytes.data.NewsContract.ImageEntry;
+import com.ravi.apps.android.newsbytes.data.NewsContract.MetricsEntry;
 import com.ravi.apps.android.newsbytes.data.NewsContract.NewsEntry;
+import com.ravi.apps.android.newsbytes.net.NewsImageLoader;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * News content provider.
+ * News content provider. Each news story has its own URI, and so do the favorites list and
+ * the headlines list of each section. A change is notified on the URIs of the stories it
+ * touched and of the lists holding them, so observers of other lists aren't disturbed.
+ * Stories in any list can also be searched by the words of their headline, summary and byline.
  */
 public class NewsProvider extends ContentProvider {
 
@@ -37,8 +65,28 @@ public class NewsProvider extends ContentProvider {
     // News db helper class.
     private NewsDbHelper mNewsDbHelper;
 
+    // Store for the images of the favorite news stories.
+    private ImageStore mImageStore;
+
+    // Changes made by the batch being applied on the current thread, held back until it commits.
+    private final ThreadLocal<BatchChanges> mBatchChanges = new ThreadLocal<BatchChanges>();
+
     // Constants to match each of the URIs supported by this content provider.
     static final int NEWS = 100;
+    static final int NEWS_ID = 101;
+    static final int NEWS_FAVORITES = 102;
+    static final int NEWS_SECTION = 103;
+    static final int NEWS_SEARCH = 104;
+    static final int METRICS = 200;
+    static final int IMAGE = 300;
+
+    // Order of the pages of a list, newest first and undated stories last. Stories of the
+    // same time are told apart by id, so a page can start right after any story.
+    private static final String PAGE_SORT_ORDER =
+            NewsEntry.COLUMN_DATE_MILLIS + " DESC, " + NewsEntry._ID + " DESC";
+
+    // Number of sync runs kept in the metrics table.
+    private static final int MAX_METRICS_RUNS = 50;
 
    // Builds and returns the uri matcher.
     private static UriMatcher buildUriMatcher() {
@@ -48,6 +96,15 @@ public class NewsProvider extends ContentProvider {
 
         // Define the mapping from the URIs to the constants.
         uriMatcher.addURI(authority, NewsContract.PATH_NEWS, NEWS);
+        uriMatcher.addURI(authority, NewsContract.PATH_NEWS + "/#", NEWS_ID);
+        uriMatcher.addURI(authority, NewsContract.PATH_NEWS + "/" + NewsContract.PATH_FAVORITES,
+                NEWS_FAVORITES);
+        uriMatcher.addURI(authority, NewsContract.PATH_NEWS + "/" + NewsContract.PATH_SECTION
+                + "/*", NEWS_SECTION);
+        uriMatcher.addURI(authority, NewsContract.PATH_NEWS + "/" + NewsContract.PATH_SEARCH
+                + "/*", NEWS_SEARCH);
+        uriMatcher.addURI(authority, NewsContract.PATH_METRICS, METRICS);
+        uriMatcher.addURI(authority, NewsContract.PATH_IMAGES + "/*", IMAGE);
 
         return uriMatcher;
     }
@@ -56,6 +113,7 @@ public class NewsProvider extends ContentProvider {
     public boolean onCreate() {
         // Create and hold the news db helper.
         mNewsDbHelper = new NewsDbHelper(getContext());
+        mImageStore = new ImageStore(getContext());
         return true;
     }
 
@@ -67,7 +125,16 @@ public class NewsProvider extends ContentProvider {
         // Return the appropriate type.
         switch (uriMatch) {
             case NEWS:
+            case NEWS_FAVORITES:
+            case NEWS_SECTION:
+            case NEWS_SEARCH:
                 return NewsContract.NewsEntry.CONTENT_TYPE;
+            case NEWS_ID:
+                return NewsContract.NewsEntry.CONTENT_ITEM_TYPE;
+            case METRICS:
+                return MetricsEntry.CONTENT_TYPE;
+            case IMAGE:
+                return ImageEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new UnsupportedOperationException(getContext()
                         .getString(R.string.msg_err_unknown_uri) + uri);
@@ -86,6 +153,9 @@ public class NewsProvider extends ContentProvider {
         // Create a cursor to hold the result of the database query.
         Cursor resultCursor;
 
+        // Uri notified when the result changes.
+        Uri notificationUri = uri;
+
         // Perform appropriate query.
         switch(uriMatch) {
             case NEWS: {
@@ -100,6 +170,62 @@ public class NewsProvider extends ContentProvider {
                         sortOrder);
                 break;
             }
+            case NEWS_ID: {
+                // Query the news story with the id.
+                resultCursor = readDb.query(
+                        NewsEntry.TABLE_NAME,
+                        projection,
+                        DatabaseUtils.concatenateWhere(getUriSelection(uriMatch), selection),
+                        DatabaseUtils.appendSelectionArgs(getUriSelectionArgs(uriMatch, uri),
+                                selectionArgs),
+                        null,
+                        null,
+                        sortOrder);
+                break;
+            }
+            case NEWS_FAVORITES:
+            case NEWS_SECTION: {
+                // Query the stories of the list, or a single page of them.
+                selection = DatabaseUtils.concatenateWhere(getUriSelection(uriMatch), selection);
+                selectionArgs = DatabaseUtils.appendSelectionArgs(
+                        getUriSelectionArgs(uriMatch, uri), selectionArgs);
+                String limit = getPageLimit(uri);
+                if(limit != null) {
+                    selection = DatabaseUtils.concatenateWhere(selection, getPageSelection(uri));
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            getPageSelectionArgs(uri));
+                    sortOrder = PAGE_SORT_ORDER;
+                }
+                resultCursor = readDb.query(
+                        NewsEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder,
+                        limit);
+                break;
+            }
+            case NEWS_SEARCH: {
+                // Query the stories matching the search, which may be in any list.
+                resultCursor = querySearch(readDb, NewsEntry.getSearchQueryFromUri(uri),
+                        projection, selection, selectionArgs, sortOrder);
+                notificationUri = NewsEntry.CONTENT_URI;
+                break;
+            }
+            case METRICS: {
+                // Query the metrics table.
+                resultCursor = readDb.query(
+                        MetricsEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder);
+                break;
+            }
             default: {
                 throw new UnsupportedOperationException(getContext()
                         .getString(R.string.msg_err_unknown_uri) + uri);
@@ -107,7 +233,7 @@ public class NewsProvider extends ContentProvider {
         }
 
         // Set notification.
-        resultCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        resultCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
 
         return resultCursor;
     }
@@ -123,16 +249,37 @@ public class NewsProvider extends ContentProvider {
         // Uri to hold the result.
         Uri resultUri;
 
+        // Uris of the story and the list it was added to.
+        Set<Uri> changeUris = new LinkedHashSet<Uri>();
+
         switch (uriMatch) {
             case NEWS: {
-                // Insert values into news table.
-                long id = writeDb.insert(NewsEntry.TABLE_NAME, null, values);
+                // Move any image bytes into the image store.
+                Set<String> imageKeys = storeImages(uri, values);
+
+                // Insert values into news table, resolving any clash as the uri asks.
+                int conflictAlgorithm = getConflictAlgorithm(uri);
+                Set<String> replacedImageKeys = getReplacedImageKeys(conflictAlgorithm, values);
+                long id = insertNews(writeDb, values, conflictAlgorithm);
 
                 // Check if insert was successful.
                 if (id > 0) {
                     resultUri = NewsEntry.buildNewsUri(id);
+                    changeUris.add(resultUri);
+                    changeUris.add(getListUri(values.getAsInteger(NewsEntry.COLUMN_IS_FAVORITE),
+                            values.getAsString(NewsEntry.COLUMN_SECTION)));
+                    if(conflictAlgorithm == SQLiteDatabase.CONFLICT_REPLACE) {
+                        // The story replaced had another id, which isn't known.
+                        changeUris.add(NewsEntry.CONTENT_URI);
+                        deleteOrphanedImages(replacedImageKeys);
+                    }
+                } else if(conflictAlgorithm == SQLiteDatabase.CONFLICT_IGNORE) {
+                    // The story is stored already, which is what an ignored insert asks for.
+                    deleteOrphanedImages(imageKeys);
+                    return null;
                 } else {
-                    // Throw sql exception.
+                    // Don't leave behind images nothing refers to, then throw sql exception.
+                    deleteOrphanedImages(imageKeys);
                     throw new android.database.SQLException(getContext()
                             .getString(R.string.err_insert_failed) + uri);
                 }
@@ -147,7 +294,7 @@ public class NewsProvider extends ContentProvider {
         }
 
         // Notify any observers of the change.
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChanges(changeUris);
 
         return resultUri;
     }
@@ -162,33 +309,89 @@ public class NewsProvider extends ContentProvider {
 
         switch (uriMatch) {
             case NEWS: {
+                // Resolve any clash with a stored story as the uri asks.
+                int conflictAlgorithm = getConflictAlgorithm(uri);
+
                 // Begin the db transaction.
-                writeDb.beginTransaction();
+                writeDb.beginTransactionNonExclusive();
 
-                // Count the insertions made.
+                // Count the insertions made, noting the uris of the stories and their lists,
+                // and the images of the stories replaced.
                 int insertCount = 0;
+                Set<Uri> changeUris = new LinkedHashSet<Uri>();
+                Set<String> replacedImageKeys = new HashSet<String>();
+                BulkInserter bulkInserter =
+                        new BulkInserter(writeDb, NewsEntry.TABLE_NAME, conflictAlgorithm);
                 try {
                     for(ContentValues value : values) {
-                        // Insert values into news table.
-                        long id = writeDb.insert(NewsEntry.TABLE_NAME, null, value);
+                        // Move any image bytes into the image store.
+                        Set<String> imageKeys = storeImages(uri, value);
+                        replacedImageKeys.addAll(getReplacedImageKeys(conflictAlgorithm, value));
+
+                        // Insert values into news table through a reused compiled statement.
+                        long id = bulkInserter.insert(value);
 
                         // Check if insert was successful and increment count.
                         if (id != -1) {
                             insertCount++;
+                            changeUris.add(NewsEntry.buildNewsUri(id));
+                            changeUris.add(getListUri(
+                                    value.getAsInteger(NewsEntry.COLUMN_IS_FAVORITE),
+                                    value.getAsString(NewsEntry.COLUMN_SECTION)));
+                        } else {
+                            deleteOrphanedImages(imageKeys);
                         }
                     }
                     // Transaction successful.
                     writeDb.setTransactionSuccessful();
                 } finally {
                     // End the db transaction.
+                    bulkInserter.close();
                     writeDb.endTransaction();
                 }
 
+                // The stories replaced had other ids, which aren't known.
+                if(conflictAlgorithm == SQLiteDatabase.CONFLICT_REPLACE && insertCount > 0) {
+                    changeUris.add(NewsEntry.CONTENT_URI);
+                }
+
+                // Drop the images of the stories replaced, once nothing refers to them.
+                deleteOrphanedImages(replacedImageKeys);
+
                 // Notify observers of change.
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChanges(changeUris);
 
                 return insertCount;
             }
+            case METRICS: {
+                // Append the rows of the run and drop the oldest runs in one transaction.
+                writeDb.beginTransactionNonExclusive();
+
+                int insertCount = 0;
+                try {
+                    for(ContentValues value : values) {
+                        if(writeDb.insert(MetricsEntry.TABLE_NAME, null, value) != -1) {
+                            insertCount++;
+                        }
+                    }
+
+                    // Keep only the most recent runs, the table works as a ring buffer.
+                    writeDb.delete(MetricsEntry.TABLE_NAME,
+                            MetricsEntry.COLUMN_RUN_ID + " NOT IN (SELECT DISTINCT "
+                                    + MetricsEntry.COLUMN_RUN_ID + " FROM "
+                                    + MetricsEntry.TABLE_NAME + " ORDER BY "
+                                    + MetricsEntry.COLUMN_RUN_ID + " DESC LIMIT "
+                                    + MAX_METRICS_RUNS + ")",
+                            null);
+
+                    writeDb.setTransactionSuccessful();
+                } finally {
+                    writeDb.endTransaction();
+                }
+
+                // Nobody observes the metrics, so there's no change to notify.
+                return insertCount;
+            }
             default: {
                 return super.bulkInsert(uri, values);
             }
@@ -206,10 +409,38 @@ public class NewsProvider extends ContentProvider {
         // Number of rows updated.
         int rowsUpdated = 0;
 
+        // Uris of the stories updated and the lists holding them.
+        Set<Uri> changeUris;
+
         switch (uriMatch) {
-            case NEWS: {
-                // Update values in news table.
+            case NEWS:
+            case NEWS_ID: {
+                // Restrict the selection to the story with the id, if given.
+                selection = DatabaseUtils.concatenateWhere(getUriSelection(uriMatch), selection);
+                selectionArgs = DatabaseUtils.appendSelectionArgs(
+                        getUriSelectionArgs(uriMatch, uri), selectionArgs);
+
+                // Move any image bytes into the image store, noting the images they replace.
+                Set<String> imageKeys = Collections.emptySet();
+                if(values.containsKey(NewsEntry.COLUMN_THUMBNAIL)
+                        || values.containsKey(NewsEntry.COLUMN_PHOTO)) {
+                    imageKeys = getImageKeys(selection, selectionArgs);
+                    imageKeys.addAll(storeImages(uri, values));
+                }
+
+                // Note the stories and their lists, then update values in news table.
+                changeUris = getChangeUris(selection, selectionArgs);
                 rowsUpdated = writeDb.update(NewsEntry.TABLE_NAME, values, selection, selectionArgs);
+
+                // Delete the images replaced, and those stored for no story if none matched.
+                deleteOrphanedImages(imageKeys);
+
+                // A story moved into another list changes that list too. Nothing moves stories
+                // between lists, so simply notify every list if it happens.
+                if(values.containsKey(NewsEntry.COLUMN_IS_FAVORITE)
+                        || values.containsKey(NewsEntry.COLUMN_SECTION)) {
+                    changeUris.add(NewsEntry.CONTENT_URI);
+                }
                 break;
             }
             default: {
@@ -220,7 +451,7 @@ public class NewsProvider extends ContentProvider {
 
         // Notify any observers only if any updates were made.
         if (rowsUpdated != 0)
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChanges(changeUris);
 
         return rowsUpdated;
     }
@@ -236,12 +467,31 @@ public class NewsProvider extends ContentProvider {
         // Number of rows deleted.
         int rowsDeleted = 0;
 
+        // Uris of the stories deleted and the lists holding them, or the uri passed in.
+        Set<Uri> changeUris = Collections.singleton(uri);
+
         if(selection == null) selection = "1";
 
         switch(uriMatch) {
-            case NEWS: {
-                // Delete from news table.
+            case NEWS:
+            case NEWS_ID: {
+                // Restrict the selection to the story with the id, if given.
+                selection = DatabaseUtils.concatenateWhere(getUriSelection(uriMatch), selection);
+                selectionArgs = DatabaseUtils.appendSelectionArgs(
+                        getUriSelectionArgs(uriMatch, uri), selectionArgs);
+
+                // Note the stories, their lists and images, then delete from news table.
+                changeUris = getChangeUris(selection, selectionArgs);
+                Set<String> imageKeys = getImageKeys(selection, selectionArgs);
                 rowsDeleted = writeDb.delete(NewsEntry.TABLE_NAME, selection, selectionArgs);
+
+                // Delete the images no other story refers to.
+                deleteOrphanedImages(imageKeys);
+                break;
+            }
+            case METRICS: {
+                // Delete from metrics table.
+                rowsDeleted = writeDb.delete(MetricsEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             }
             default: {
@@ -252,9 +502,492 @@ public class NewsProvider extends ContentProvider {
 
         // Notify any observers only if any deletions were made.
         if(rowsDeleted != 0)
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChanges(changeUris);
 
         return rowsDeleted;
     }
-}
 
+    /**
+     * Applies the operations in a single transaction, so either all of them take effect or
+     * none do. Observers are notified once per changed uri after the commit, and the images
+     * the batch leaves unused are only deleted then.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase writeDb = mNewsDbHelper.getWritableDatabase();
+
+        BatchChanges batchChanges = new BatchChanges();
+        mBatchChanges.set(batchChanges);
+        ContentProviderResult[] results;
+        writeDb.beginTransactionNonExclusive();
+        try {
+            results = super.applyBatch(operations);
+            writeDb.setTransactionSuccessful();
+        } finally {
+            batchChanges.closeInserters();
+            writeDb.endTransaction();
+            mBatchChanges.remove();
+
+            // Delete the images left unused, whether or not the batch went through.
+            deleteOrphanedImages(batchChanges.imageKeys);
+        }
+
+        notifyChanges(batchChanges.changeUris);
+        return results;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        // Only the images can be opened, and only for reading.
+        if(sUriMatcher.match(uri) != IMAGE || !"r".equals(mode)) {
+            throw new FileNotFoundException(uri.toString());
+        }
+
+        File file = mImageStore.getFile(ImageEntry.getKeyFromUri(uri));
+        if(file == null) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /**
+     * Returns the selection implied by the uri, or null if the uri implies none.
+     */
+    private static String getUriSelection(int uriMatch) {
+        switch(uriMatch) {
+            case NEWS_ID:
+                return NewsEntry._ID + "=?";
+            case NEWS_FAVORITES:
+                return NewsEntry.COLUMN_IS_FAVORITE + "=1";
+            case NEWS_SECTION:
+                return NewsEntry.COLUMN_IS_FAVORITE + "=0 AND " + NewsEntry.COLUMN_SECTION + "=?";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the arguments of the selection implied by the uri, or null if there are none.
+     */
+    private static String[] getUriSelectionArgs(int uriMatch, Uri uri) {
+        switch(uriMatch) {
+            case NEWS_ID:
+                return new String[]{Long.toString(ContentUris.parseId(uri))};
+            case NEWS_SECTION:
+                return new String[]{NewsEntry.getSectionFromUri(uri)};
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the limit of a page query, or null if the whole list is queried. A page size
+     * that isn't a positive number is rejected.
+     */
+    private String getPageLimit(Uri uri) {
+        String pageSize = uri.getQueryParameter(NewsEntry.PARAM_PAGE_SIZE);
+        if(pageSize == null) {
+            return null;
+        }
+
+        // The limit goes into the statement as is, so only take a positive number.
+        int limit;
+        try {
+            limit = Integer.parseInt(pageSize);
+        } catch(NumberFormatException e) {
+            limit = 0;
+        }
+        if(limit <= 0) {
+            throw new IllegalArgumentException(getContext()
+                    .getString(R.string.err_invalid_page_size) + uri);
+        }
+        return Integer.toString(limit);
+    }
+
+    /**
+     * Returns the selection of the stories following the story a page starts after, or null
+     * for the first page. The publication time bounds the scan of the list index, so a page
+     * costs the same however far down the list it is. Undated stories can't be bounded that
+     * way, so they only follow an undated story.
+     */
+    private static String getPageSelection(Uri uri) {
+        if(uri.getQueryParameter(NewsEntry.PARAM_AFTER_ID) == null) {
+            return null;
+        }
+        if(uri.getQueryParameter(NewsEntry.PARAM_AFTER_DATE) == null) {
+            return NewsEntry.COLUMN_DATE_MILLIS + " IS NULL AND " + NewsEntry._ID + "<?";
+        }
+        return NewsEntry.COLUMN_DATE_MILLIS + "<=? AND (" + NewsEntry.COLUMN_DATE_MILLIS +
+                "<? OR " + NewsEntry._ID + "<?)";
+    }
+
+    /**
+     * Returns the arguments of the page selection, or null for the first page.
+     */
+    private static String[] getPageSelectionArgs(Uri uri) {
+        String afterId = uri.getQueryParameter(NewsEntry.PARAM_AFTER_ID);
+        if(afterId == null) {
+            return null;
+        }
+        String afterDate = uri.getQueryParameter(NewsEntry.PARAM_AFTER_DATE);
+        if(afterDate == null) {
+            return new String[]{afterId};
+        }
+        return new String[]{afterDate, afterDate, afterId};
+    }
+
+    /**
+     * Queries the stories matching the search query through the full-text search table.
+     * Stories matching in the headline come first, then the newest, unless a sort order is
+     * given. A story stored in several lists is returned once.
+     */
+    private static Cursor querySearch(SQLiteDatabase db, String query, String[] projection,
+                                      String selection, String[] selectionArgs,
+                                      String sortOrder) {
+        String matchQuery = buildMatchQuery(query);
+        if(matchQuery == null) {
+            // Nothing to search for, so nothing matches.
+            return new MatrixCursor(projection != null ?
+                    projection : new String[]{NewsEntry._ID});
+        }
+
+        String matchSelection = NewsEntry._ID + " IN (SELECT docid FROM " +
+                NewsDbHelper.FTS_TABLE_NAME + " WHERE " + NewsDbHelper.FTS_TABLE_NAME +
+                " MATCH ?)";
+        String[] queryArgs = DatabaseUtils.appendSelectionArgs(new String[]{matchQuery},
+                selectionArgs);
+        if(sortOrder == null) {
+            sortOrder = "(" + NewsEntry._ID + " IN (SELECT docid FROM " +
+                    NewsDbHelper.FTS_TABLE_NAME + " WHERE " + NewsEntry.COLUMN_HEADLINE +
+                    " MATCH ?)) DESC, " + NewsEntry.COLUMN_DATE_MILLIS + " DESC";
+
+            // The argument of the sort order comes after those of the selection.
+            queryArgs = DatabaseUtils.appendSelectionArgs(queryArgs, new String[]{matchQuery});
+        }
+
+        return db.query(
+                NewsEntry.TABLE_NAME,
+                projection,
+                DatabaseUtils.concatenateWhere(matchSelection, selection),
+                queryArgs,
+                "IFNULL(" + NewsEntry.COLUMN_URI_STORY + ", " + NewsEntry._ID + ")",
+                null,
+                sortOrder);
+    }
+
+    /**
+     * Builds the full-text match expression for a search query as typed, matching the
+     * stories holding a word starting with each of its words. Returns null if the query
+     * holds no words.
+     */
+    static String buildMatchQuery(String query) {
+        StringBuilder matchQuery = new StringBuilder();
+        StringBuilder word = new StringBuilder();
+        for(int i = 0; i <= query.length(); i++) {
+            char c = i < query.length() ? query.charAt(i) : ' ';
+            if(Character.isLetterOrDigit(c)) {
+                // Lower the case of ASCII letters only, as the index does, which also keeps
+                // the words from being read as operators.
+                word.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+            } else if(word.length() > 0) {
+                if(matchQuery.length() > 0) {
+                    matchQuery.append(' ');
+                }
+                matchQuery.append(word).append('*');
+                word.setLength(0);
+            }
+        }
+        return matchQuery.length() > 0 ? matchQuery.toString() : null;
+    }
+
+    /**
+     * Returns the conflict algorithm the uri asks inserts to use.
+     */
+    private static int getConflictAlgorithm(Uri uri) {
+        String conflict = uri.getQueryParameter(NewsEntry.PARAM_CONFLICT);
+        if(NewsEntry.CONFLICT_REPLACE.equals(conflict)) {
+            return SQLiteDatabase.CONFLICT_REPLACE;
+        } else if(NewsEntry.CONFLICT_IGNORE.equals(conflict)) {
+            return SQLiteDatabase.CONFLICT_IGNORE;
+        }
+        return SQLiteDatabase.CONFLICT_NONE;
+    }
+
+    /**
+     * Returns the keys of the images of the story the values would replace, if any. Only the
+     * favorites hold images, and only a story with a uri and a section can clash.
+     */
+    private Set<String> getReplacedImageKeys(int conflictAlgorithm, ContentValues values) {
+        Integer isFavorite = values.getAsInteger(NewsEntry.COLUMN_IS_FAVORITE);
+        String section = values.getAsString(NewsEntry.COLUMN_SECTION);
+        String uriStory = values.getAsString(NewsEntry.COLUMN_URI_STORY);
+        if(conflictAlgorithm != SQLiteDatabase.CONFLICT_REPLACE || isFavorite == null
+                || isFavorite != 1 || section == null || uriStory == null) {
+            return Collections.emptySet();
+        }
+        return getImageKeys(NewsEntry.COLUMN_IS_FAVORITE + "=1 AND " +
+                NewsEntry.COLUMN_SECTION + "=? AND " + NewsEntry.COLUMN_URI_STORY + "=?",
+                new String[]{section, uriStory});
+    }
+
+    /**
+     * Returns the uri of the list holding a story, or the news uri for a story in no list.
+     */
+    private static Uri getListUri(Integer isFavorite, String section) {
+        if(isFavorite != null && isFavorite == 1) {
+            return NewsEntry.FAVORITES_URI;
+        }
+        return section != null ? NewsEntry.buildSectionUri(section) : NewsEntry.CONTENT_URI;
+    }
+
+    /**
+     * Returns the uris of the news stories matching the selection and of the lists
+     * holding them.
+     */
+    private Set<Uri> getChangeUris(String selection, String[] selectionArgs) {
+        Set<Uri> changeUris = new LinkedHashSet<Uri>();
+        Cursor cursor = mNewsDbHelper.getReadableDatabase().query(
+                NewsEntry.TABLE_NAME,
+                new String[]{NewsEntry._ID, NewsEntry.COLUMN_IS_FAVORITE, NewsEntry.COLUMN_SECTION},
+                selection,
+                selectionArgs,
+                null,
+                null,
+                null);
+        try {
+            while(cursor.moveToNext()) {
+                changeUris.add(NewsEntry.buildNewsUri(cursor.getLong(0)));
+                changeUris.add(getListUri(cursor.getInt(1), cursor.getString(2)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return changeUris;
+    }
+
+    /**
+     * Inserts the news row, returning its id or -1. While a batch is applied, the row goes
+     * through a compiled statement reused by the other inserts of the batch.
+     */
+    private long insertNews(SQLiteDatabase writeDb, ContentValues values, int conflictAlgorithm) {
+        BatchChanges batchChanges = mBatchChanges.get();
+        if(batchChanges == null) {
+            return writeDb.insertWithOnConflict(NewsEntry.TABLE_NAME, null, values,
+                    conflictAlgorithm);
+        }
+
+        BulkInserter inserter = batchChanges.inserters.get(conflictAlgorithm);
+        if(inserter == null) {
+            inserter = new BulkInserter(writeDb, NewsEntry.TABLE_NAME, conflictAlgorithm);
+            batchChanges.inserters.put(conflictAlgorithm, inserter);
+        }
+        return inserter.insert(values);
+    }
+
+    /**
+     * Notifies the observers of each of the uris, or holds them back while a batch is applied.
+     */
+    private void notifyChanges(Set<Uri> changeUris) {
+        BatchChanges batchChanges = mBatchChanges.get();
+        if(batchChanges != null) {
+            batchChanges.changeUris.addAll(changeUris);
+            return;
+        }
+
+        for(Uri changeUri : changeUris) {
+            getContext().getContentResolver().notifyChange(changeUri, null);
+        }
+    }
+
+    /**
+     * Moves the thumbnail and photo bytes in the values into the image store, replacing
+     * them with the image keys, sizes and dimensions. Returns the keys of the stored images.
+     */
+    private Set<String> storeImages(Uri uri, ContentValues values) {
+        Set<String> imageKeys = new HashSet<String>();
+        storeImage(uri, values, imageKeys, NewsEntry.COLUMN_THUMBNAIL,
+                NewsEntry.COLUMN_THUMBNAIL_KEY, NewsEntry.COLUMN_THUMBNAIL_SIZE,
+                NewsEntry.COLUMN_THUMBNAIL_WIDTH, NewsEntry.COLUMN_THUMBNAIL_HEIGHT);
+        storeImage(uri, values, imageKeys, NewsEntry.COLUMN_PHOTO,
+                NewsEntry.COLUMN_PHOTO_KEY, NewsEntry.COLUMN_PHOTO_SIZE,
+                NewsEntry.COLUMN_PHOTO_WIDTH, NewsEntry.COLUMN_PHOTO_HEIGHT);
+        return imageKeys;
+    }
+
+    // Moves the bytes of a single image in the values into the image store.
+    private void storeImage(Uri uri, ContentValues values, Set<String> imageKeys,
+                            String bytesColumn, String keyColumn, String sizeColumn,
+                            String widthColumn, String heightColumn) {
+        if(!values.containsKey(bytesColumn)) {
+            return;
+        }
+        byte[] bytes = values.getAsByteArray(bytesColumn);
+        values.remove(bytesColumn);
+        if(bytes == null || bytes.length == 0) {
+            return;
+        }
+
+        // Store the image.
+        String key;
+        try {
+            key = mImageStore.put(bytes);
+        } catch(IOException e) {
+            throw new android.database.SQLException(getContext()
+                    .getString(R.string.err_image_store_failed) + uri);
+        }
+        imageKeys.add(key);
+
+        // Read the dimensions without decoding the image.
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+
+        values.put(keyColumn, key);
+        values.put(sizeColumn, bytes.length);
+        values.put(widthColumn, options.outWidth);
+        values.put(heightColumn, options.outHeight);
+    }
+
+    /**
+     * Returns the keys of the images of the news stories matching the selection.
+     */
+    private Set<String> getImageKeys(String selection, String[] selectionArgs) {
+        Set<String> imageKeys = new HashSet<String>();
+        Cursor cursor = mNewsDbHelper.getReadableDatabase().query(
+                NewsEntry.TABLE_NAME,
+                new String[]{NewsEntry.COLUMN_THUMBNAIL_KEY, NewsEntry.COLUMN_PHOTO_KEY},
+                DatabaseUtils.concatenateWhere(selection, NewsEntry.COLUMN_THUMBNAIL_KEY +
+                        " IS NOT NULL OR " + NewsEntry.COLUMN_PHOTO_KEY + " IS NOT NULL"),
+                selectionArgs,
+                null,
+                null,
+                null);
+        try {
+            while(cursor.moveToNext()) {
+                for(int i = 0; i < 2; i++) {
+                    if(!cursor.isNull(i)) {
+                        imageKeys.add(cursor.getString(i));
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return imageKeys;
+    }
+
+    /**
+     * Deletes the images that no news story refers to any more. While a batch is applied,
+     * they are held back until it commits.
+     */
+    private void deleteOrphanedImages(Set<String> imageKeys) {
+        BatchChanges batchChanges = mBatchChanges.get();
+        if(batchChanges != null) {
+            batchChanges.imageKeys.addAll(imageKeys);
+            return;
+        }
+
+        for(String key : imageKeys) {
+            Cursor cursor = mNewsDbHelper.getReadableDatabase().query(
+                    NewsEntry.TABLE_NAME,
+                    new String[]{NewsEntry._ID},
+                    NewsEntry.COLUMN_THUMBNAIL_KEY + "=? OR " + NewsEntry.COLUMN_PHOTO_KEY + "=?",
+                    new String[]{key, key},
+                    null,
+                    null,
+                    null,
+                    "1");
+            try {
+                if(cursor.getCount() == 0) {
+                    mImageStore.delete(key);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Prints the 50th and 95th percentile of the time spent in each sync phase over the
+     * recorded sync runs. Run it with
+     * adb shell dumpsys activity provider com.ravi.apps.android.newsbytes/.data.NewsProvider
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        Cursor cursor = mNewsDbHelper.getReadableDatabase().query(
+                MetricsEntry.TABLE_NAME,
+                new String[]{MetricsEntry.COLUMN_PHASE, MetricsEntry.COLUMN_DURATION_MS,
+                        MetricsEntry.COLUMN_BYTES},
+                null,
+                null,
+                null,
+                null,
+                MetricsEntry.COLUMN_PHASE);
+
+        writer.println(getContext().getString(R.string.dump_metrics_header, MAX_METRICS_RUNS));
+
+        try {
+            // Rows come grouped by phase, summarize each group as it ends.
+            String phase = null;
+            List<Long> durations = new ArrayList<Long>();
+            List<Long> bytes = new ArrayList<Long>();
+            while(cursor.moveToNext()) {
+                if(phase != null && !phase.equals(cursor.getString(0))) {
+                    dumpPhase(writer, phase, durations, bytes);
+                    durations.clear();
+                    bytes.clear();
+                }
+                phase = cursor.getString(0);
+                durations.add(cursor.getLong(1));
+                bytes.add(cursor.getLong(2));
+            }
+            if(phase != null) {
+                dumpPhase(writer, phase, durations, bytes);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // The images are loaded in this process too.
+        NewsImageLoader.getInstance(getContext()).dump(writer);
+    }
+
+    // Prints the percentiles of a single phase.
+    private void dumpPhase(PrintWriter writer, String phase, List<Long> durations,
+                           List<Long> bytes) {
+        Collections.sort(durations);
+        Collections.sort(bytes);
+        writer.println(getContext().getString(R.string.dump_metrics_phase, phase,
+                durations.size(), getPercentile(durations, 50), getPercentile(durations, 95),
+                getPercentile(bytes, 50)));
+    }
+
+    // Returns the nearest rank percentile of the sorted values.
+    private static long getPercentile(List<Long> sortedValues, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sortedValues.size());
+        return sortedValues.get(Math.max(0, rank - 1));
+    }
+
+    /**
+     * Holds the changes of a batch until it commits.
+     */
+    private static final class BatchChanges {
+        // Uris to notify.
+        final Set<Uri> changeUris = new LinkedHashSet<Uri>();
+
+        // Keys of the images that may be left unused.
+        final Set<String> imageKeys = new HashSet<String>();
+
+        // Inserters of the news rows, by conflict algorithm, reused across the batch.
+        final Map<Integer, BulkInserter> inserters = new HashMap<Integer, BulkInserter>();
+
+        // Releases the compiled statements of the inserters.
+        void closeInserters() {
+            for(BulkInserter inserter : inserters.values()) {
+                inserter.close();
+            }
+            inserters.clear();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 Ravi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ravi.apps.android.newsbytes.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.ravi.apps.android.newsbytes.data.NewsContract.ImageEntry;
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.Request;
+import com.squareup.picasso.RequestHandler;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodes the images of the image store for Picasso straight from their files, on Picasso's
+ * worker threads. When the request has a target size, the image is subsampled while it's
+ * decoded, so a large stored image never takes more memory than twice the size it's shown at.
+ * Counts the decodes and their time, telling apart any made on the main thread.
+ */
+public class StoredImageRequestHandler extends RequestHandler {
+
+    // Store holding the images.
+    private final ImageStore mImageStore;
+
+    // Decode counters.
+    private final AtomicLong mDecodeCount = new AtomicLong();
+    private final AtomicLong mDecodeMillis = new AtomicLong();
+    private final AtomicLong mMainThreadDecodeMillis = new AtomicLong();
+
+    public StoredImageRequestHandler(Context context) {
+        mImageStore = new ImageStore(context);
+    }
+
+    @Override
+    public boolean canHandleRequest(Request data) {
+        Uri uri = data.uri;
+        if(uri == null || !ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())
+                || !NewsContract.CONTENT_AUTHORITY.equals(uri.getAuthority())) {
+            return false;
+        }
+        List<String> segments = uri.getPathSegments();
+        return segments.size() == 2 && NewsContract.PATH_IMAGES.equals(segments.get(0));
+    }
+
+    @Override
+    public Result load(Request request, int networkPolicy) throws IOException {
+        File file = mImageStore.getFile(ImageEntry.getKeyFromUri(request.uri));
+        if(file == null || !file.exists()) {
+            throw new FileNotFoundException(request.uri.toString());
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if(request.config != null) {
+            options.inPreferredConfig = request.config;
+        }
+        if(request.hasSize()) {
+            // Read the dimensions first to work out how far the image can be subsampled.
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(file.getPath(), options);
+            options.inSampleSize = getSampleSize(options.outWidth, options.outHeight,
+                    request.targetWidth, request.targetHeight);
+            options.inJustDecodeBounds = false;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+
+        long decodeMillis = SystemClock.elapsedRealtime() - startTime;
+        mDecodeCount.incrementAndGet();
+        mDecodeMillis.addAndGet(decodeMillis);
+        if(Looper.myLooper() == Looper.getMainLooper()) {
+            mMainThreadDecodeMillis.addAndGet(decodeMillis);
+        }
+
+        if(bitmap == null) {
+            throw new IOException(request.uri.toString());
+        }
+        return new Result(bitmap, Picasso.LoadedFrom.DISK);
+    }
+
+    // Returns the number of decodes made.
+    public long getDecodeCount() {
+        return mDecodeCount.get();
+    }
+
+    // Returns the time spent decoding, in milliseconds.
+    public long getDecodeMillis() {
+        return mDecodeMillis.get();
+    }
+
+    // Returns the time spent decoding on the main thread, in milliseconds.
+    public long getMainThreadDecodeMillis() {
+        return mMainThreadDecodeMillis.get();
+    }
+
+    /**
+     * Returns the largest power of two the image can be subsampled by while still covering
+     * the target size. A zero target dimension leaves that dimension free.
+     */
+    static int getSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        if(width <= 0 || height <= 0) {
+            return sampleSize;
+        }
+        while((targetWidth == 0 || width / (sampleSize * 2) >= targetWidth)
+                && (targetHeight == 0 || height / (sampleSize * 2) >= targetHeight)
+                && (targetWidth != 0 || targetHeight != 0)) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2015 Ravi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ravi.apps.android.newsbytes.net;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.util.Log;
+
+import com.ravi.apps.android.newsbytes.R;
+import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.Callback;
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * Holds the single HTTP client used by the app. All requests share one connection pool, so
+ * the sync adapter and the image loading reuse each other's keep-alive connections. Responses
+ * are transparently gzip compressed and every request made on the network is counted.
+ */
+public class NewsHttpClient {
+
+    // Tag for logging messages.
+    private static final String LOG_TAG = NewsHttpClient.class.getSimpleName();
+
+    // Connection pool settings.
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_DURATION_MS = 5 * 60 * 1000;   // Five minutes.
+
+    // Directory for the disk cache of downloaded images.
+    private static final String IMAGE_CACHE_DIR = "image-cache";
+
+    // Holds the single instance of the client.
+    private static NewsHttpClient sInstance;
+
+    // Application context.
+    private final Context mContext;
+
+    // Underlying client, without a response cache.
+    private final OkHttpClient mOkHttpClient;
+
+    // Client for loading images, sharing the connection pool and adding a disk cache.
+    private final OkHttpClient mImageOkHttpClient;
+
+    // Network counters.
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mConnectionCount = new AtomicLong();
+    private final AtomicLong mResponseBytes = new AtomicLong();
+    private final AtomicLong mLatencyMillis = new AtomicLong();
+
+    // Connections seen so far, used to count the new ones.
+    private final Map<Connection, Boolean> mConnections =
+            Collections.synchronizedMap(new WeakHashMap<Connection, Boolean>());
+
+    private NewsHttpClient(Context context) {
+        mContext = context;
+        Resources resources = context.getResources();
+
+        // Create the client with a shared connection pool and the configured timeouts.
+        mOkHttpClient = new OkHttpClient();
+        mOkHttpClient.setConnectionPool(
+                new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION_MS));
+        mOkHttpClient.setConnectTimeout(
+                resources.getInteger(R.integer.http_connect_timeout_seconds), TimeUnit.SECONDS);
+        mOkHttpClient.setReadTimeout(
+                resources.getInteger(R.integer.http_read_timeout_seconds), TimeUnit.SECONDS);
+        mOkHttpClient.interceptors().add(new StartTimeInterceptor());
+        mOkHttpClient.networkInterceptors().add(new CountingInterceptor());
+
+        // The sync requests must see 304 responses, so only the image client gets a cache.
+        mImageOkHttpClient = mOkHttpClient.clone();
+        mImageOkHttpClient.setCache(new Cache(new File(context.getCacheDir(), IMAGE_CACHE_DIR),
+                resources.getInteger(R.integer.http_image_cache_size_mb) * 1024L * 1024L));
+    }
+
+    /**
+     * Returns the single instance of the client, creating it if it doesn't exist.
+     */
+    public static synchronized NewsHttpClient getInstance(Context context) {
+        if(sInstance == null) {
+            sInstance = new NewsHttpClient(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    // Returns the client for API requests.
+    public OkHttpClient getClient() {
+        return mOkHttpClient;
+    }
+
+    // Returns the client for image requests.
+    public OkHttpClient getImageClient() {
+        return mImageOkHttpClient;
+    }
+
+    /**
+     * Opens a connection to the host of the url in the background and leaves it in the
+     * connection pool, so that the next request to the host skips the handshake.
+     */
+    public void preconnect(String url) {
+        Request request = new Request.Builder()
+                .url(url)
+                .head()
+                .build();
+
+        mOkHttpClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Request request, IOException e) {
+                Log.d(LOG_TAG, mContext.getString(R.string.log_preconnect_failed)
+                        + e.getLocalizedMessage());
+            }
+
+            @Override
+            public void onResponse(Response response) throws IOException {
+                // Release the connection back to the pool.
+                response.body().close();
+            }
+        });
+    }
+
+    // Returns the number of requests made on the network.
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    // Returns the number of connections opened.
+    public long getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    // Returns the number of response body bytes received on the network, before decompression.
+    public long getResponseBytes() {
+        return mResponseBytes.get();
+    }
+
+    // Returns the total time spent waiting for response headers, in milliseconds.
+    public long getLatencyMillis() {
+        return mLatencyMillis.get();
+    }
+
+    /**
+     * Returns the timings to be filled in for the request, or null if it doesn't ask for them.
+     */
+    private static RequestTimings getTimings(Request request) {
+        Object tag = request.tag();
+        return tag instanceof RequestTimings ? (RequestTimings) tag : null;
+    }
+
+    /**
+     * Notes when a call starts, before a connection is looked for.
+     */
+    private static final class StartTimeInterceptor implements Interceptor {
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            RequestTimings timings = getTimings(chain.request());
+            if(timings != null) {
+                timings.setStartNanos(System.nanoTime());
+            }
+            return chain.proceed(chain.request());
+        }
+    }
+
+    /**
+     * Counts the requests, connections, latency and bytes of every network exchange.
+     */
+    private final class CountingInterceptor implements Interceptor {
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            // Count the connection if this is the first request made on it.
+            Connection connection = chain.connection();
+            if(connection != null && mConnections.put(connection, Boolean.TRUE) == null) {
+                mConnectionCount.incrementAndGet();
+            }
+
+            // The connection is established by now, report how long it took.
+            long startTime = System.nanoTime();
+            RequestTimings timings = getTimings(chain.request());
+            if(timings != null) {
+                timings.setConnectedNanos(startTime);
+            }
+
+            // Time the request up to the response headers.
+            Response response = chain.proceed(chain.request());
+            long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            mLatencyMillis.addAndGet(latencyMillis);
+            mRequestCount.incrementAndGet();
+            if(timings != null) {
+                timings.setFirstByteMillis(latencyMillis);
+            }
+
+            // Count the body bytes as they are read off the network, still compressed.
+            final RequestTimings responseTimings = timings;
+            final ResponseBody body = response.body();
+            if(body == null) {
+                return response;
+            }
+            ForwardingSource countingSource = new ForwardingSource(body.source()) {
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    long bytesRead = super.read(sink, byteCount);
+                    if(bytesRead != -1) {
+                        mResponseBytes.addAndGet(bytesRead);
+                        if(responseTimings != null) {
+                            responseTimings.addResponseBytes(bytesRead);
+                        }
+                    }
+                    return bytesRead;
+                }
+            };
+
+            return response.newBuilder()
+                    .body(ResponseBody.create(body.contentType(), body.contentLength(),
+                            Okio.buffer(countingSource)))
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2015 Ravi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ravi.apps.android.newsbytes.net;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.ravi.apps.android.newsbytes.R;
+import com.ravi.apps.android.newsbytes.data.StoredImageRequestHandler;
+import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.CacheControl;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.picasso.LruCache;
+import com.squareup.picasso.OkHttpDownloader;
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.StatsSnapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Loads the images of every screen through a single Picasso instance, which is installed as
+ * the Picasso singleton. The decoded bitmaps are kept in a memory cache bounded in bytes, and
+ * the downloads in the disk cache of the image client, keyed by url. The images of the
+ * favorites are decoded straight from the files of the image store, scaled down to the size
+ * they're shown at, and go through the memory cache the same way. Images saved with a favorite
+ * are stored as the bytes downloaded, not as decoded and re-encoded bitmaps.
+ */
+public class NewsImageLoader {
+
+    // Holds the single instance of the loader.
+    private static NewsImageLoader sInstance;
+
+    // Application context.
+    private final Context mContext;
+
+    // Memory cache of the decoded bitmaps.
+    private final LruCache mMemoryCache;
+
+    // Handler decoding the images of the image store.
+    private final StoredImageRequestHandler mStoredImageHandler;
+
+    // Picasso instance loading the images.
+    private final Picasso mPicasso;
+
+    private NewsImageLoader(Context context) {
+        mContext = context;
+
+        // Bound the memory cache by a share of the memory the app may use.
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryClassBytes = activityManager.getMemoryClass() * 1024 * 1024;
+        mMemoryCache = new LruCache(memoryClassBytes / 100 *
+                context.getResources().getInteger(R.integer.image_memory_cache_percent));
+
+        // Download through the shared HTTP client, its connection pool and its disk cache.
+        mStoredImageHandler = new StoredImageRequestHandler(context);
+        mPicasso = new Picasso.Builder(context)
+                .downloader(new OkHttpDownloader(
+                        NewsHttpClient.getInstance(context).getImageClient()))
+                .memoryCache(mMemoryCache)
+                .addRequestHandler(mStoredImageHandler)
+                .build();
+    }
+
+    /**
+     * Returns the single instance of the loader, creating it if it doesn't exist.
+     */
+    public static synchronized NewsImageLoader getInstance(Context context) {
+        if(sInstance == null) {
+            sInstance = new NewsImageLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    // Returns the Picasso instance loading the images.
+    public Picasso getPicasso() {
+        return mPicasso;
+    }
+
+    /**
+     * Returns the image at the url as it was downloaded, from the disk cache of the image
+     * client if it's there, else from the network if allowed. Returns null if the image isn't
+     * cached and the network isn't allowed. Blocks, so it mustn't be called on the main thread.
+     */
+    public byte[] getOriginalBytes(String url, boolean isNetworkAllowed) throws IOException {
+        OkHttpClient imageClient = NewsHttpClient.getInstance(mContext).getImageClient();
+
+        // Images shown before are in the cache, whatever their freshness.
+        Response response = imageClient.newCall(new Request.Builder()
+                .url(url)
+                .cacheControl(CacheControl.FORCE_CACHE)
+                .build()).execute();
+        if(!response.isSuccessful()) {
+            response.body().close();
+            if(!isNetworkAllowed) {
+                return null;
+            }
+            response = imageClient.newCall(new Request.Builder().url(url).build()).execute();
+        }
+
+        try {
+            if(!response.isSuccessful()) {
+                throw new ImageStatusException(mContext.getString(R.string.err_http_status) +
+                        response.code(), response.code());
+            }
+            return response.body().bytes();
+        } finally {
+            response.body().close();
+        }
+    }
+
+    /**
+     * Returns the image re-encoded as a JPEG no larger than the budget, scaled down by powers
+     * of two until it fits, or the image as it is if it's within the budget already or can't
+     * be made smaller. Blocks, so it mustn't be called on the main thread.
+     */
+    public static byte[] fitToBudget(byte[] bytes, int budgetBytes, int jpegQuality) {
+        if(bytes.length <= budgetBytes) {
+            return bytes;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        options.inJustDecodeBounds = false;
+
+        byte[] fittedBytes = bytes;
+        for(options.inSampleSize = 1; fittedBytes.length > budgetBytes
+                && options.outWidth / options.inSampleSize > 0
+                && options.outHeight / options.inSampleSize > 0; options.inSampleSize *= 2) {
+            Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+            if(bitmap == null) {
+                break;
+            }
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.JPEG, jpegQuality, stream);
+            bitmap.recycle();
+            if(stream.size() < fittedBytes.length) {
+                fittedBytes = stream.toByteArray();
+            }
+        }
+        return fittedBytes;
+    }
+
+    /**
+     * Prints the size, hit rate and evictions of the memory and disk caches, and the time
+     * spent decoding the stored images.
+     */
+    public void dump(PrintWriter writer) {
+        StatsSnapshot stats = mPicasso.getSnapshot();
+        writer.println(mContext.getString(R.string.dump_image_memory_cache,
+                stats.size / 1024, stats.maxSize / 1024, stats.cacheHits, stats.cacheMisses,
+                getHitRatePercent(stats.cacheHits, stats.cacheHits + stats.cacheMisses),
+                mMemoryCache.evictionCount(), stats.originalBitmapCount));
+
+        Cache diskCache = NewsHttpClient.getInstance(mContext).getImageClient().getCache();
+        long diskSize;
+        try {
+            diskSize = diskCache.getSize();
+        } catch(IOException e) {
+            diskSize = -1;
+        }
+        writer.println(mContext.getString(R.string.dump_image_disk_cache,
+                diskSize / 1024, diskCache.getMaxSize() / 1024, diskCache.getHitCount(),
+                diskCache.getRequestCount(),
+                getHitRatePercent(diskCache.getHitCount(), diskCache.getRequestCount()),
+                diskCache.getNetworkCount(), stats.totalDownloadSize / 1024));
+
+        long decodeCount = mStoredImageHandler.getDecodeCount();
+        writer.println(mContext.getString(R.string.dump_stored_image_decodes, decodeCount,
+                decodeCount > 0 ? mStoredImageHandler.getDecodeMillis() / decodeCount : 0,
+                mStoredImageHandler.getMainThreadDecodeMillis()));
+    }
+
+    // Returns the share of the requests that were hits, in percent.
+    private static long getHitRatePercent(long hitCount, long requestCount) {
+        return requestCount > 0 ? hitCount * 100 / requestCount : 0;
+    }
+
+    /**
+     * Signals that the server answered the image request with an error status.
+     */
+    public static final class ImageStatusException extends IOException {
+        // HTTP status of the response.
+        public final int code;
+
+        public ImageStatusException(String message, int code) {
+            super(message);
+            this.code = code;
+        }
+
+        /**
+         * Returns whether the request would fail the same way if repeated.
+         */
+        public boolean isPermanent() {
+            return code >= 400 && code < 500 && code != 408 && code != 429;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 Ravi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ravi.apps.android.newsbytes.net;
+
+/**
+ * Collects the timings and the response size of a single request. Set it as the tag of the request and the
+ * interceptors of the shared client fill it in as the request goes out.
+ */
+public class RequestTimings {
+
+    // Time the call was started, in nanoseconds.
+    private volatile long mStartNanos;
+
+    // Time spent getting a connection to the server, including name lookup and handshakes.
+    private volatile long mConnectMillis;
+
+    // Time from sending the request until the response headers arrived.
+    private volatile long mFirstByteMillis;
+
+    // Response body bytes read off the network, before decompression.
+    private volatile long mResponseBytes;
+
+    // Returns the time spent getting a connection, in milliseconds.
+    public long getConnectMillis() {
+        return mConnectMillis;
+    }
+
+    // Returns the time until the response headers arrived, in milliseconds.
+    public long getFirstByteMillis() {
+        return mFirstByteMillis;
+    }
+
+    // Returns the number of response body bytes read off the network, before decompression.
+    public long getResponseBytes() {
+        return mResponseBytes;
+    }
+
+    void setStartNanos(long startNanos) {
+        mStartNanos = startNanos;
+    }
+
+    void setConnectedNanos(long connectedNanos) {
+        mConnectMillis = (connectedNanos - mStartNanos) / 1000000L;
+    }
+
+    void setFirstByteMillis(long firstByteMillis) {
+        mFirstByteMillis = firstByteMillis;
+    }
+
+    // Only the thread reading the response body adds to the bytes.
+    void addResponseBytes(long bytes) {
+        mResponseBytes += bytes;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 Ravi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ravi.apps.android.newsbytes.receiver;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import com.ravi.apps.android.newsbytes.R;
+import com.ravi.apps.android.newsbytes.service.FavoriteMediaService;
+
+/**
+ * Resumes downloading the images of favorites when the device connects to a network. It's
+ * disabled unless favorites are waiting for their images, so the app isn't woken up on every
+ * network change for nothing.
+ */
+public class ConnectivityReceiver extends BroadcastReceiver {
+
+    // Tag for logging messages.
+    private static final String LOG_TAG = ConnectivityReceiver.class.getSimpleName();
+
+    /**
+     * Enables or disables the receiver.
+     */
+    public static void setEnabled(Context context, boolean isEnabled) {
+        context.getPackageManager().setComponentEnabledSetting(
+                new ComponentName(context, ConnectivityReceiver.class),
+                isEnabled ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED
+                        : PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
+                PackageManager.DONT_KILL_APP);
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        Log.d(LOG_TAG, context.getString(R.string.log_on_receive) + intent.getAction());
+
+        // Check if the device connected to a network.
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        if(networkInfo != null && networkInfo.isConnected()) {
+            FavoriteMediaService.start(context);
+        }
+    }
+}
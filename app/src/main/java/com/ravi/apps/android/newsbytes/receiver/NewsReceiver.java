@@ -22,10 +22,12 @@ import android.content.Intent;
 import android.util.Log;
 
 import com.ravi.apps.android.newsbytes.R;
+import com.ravi.apps.android.newsbytes.service.FavoriteMediaService;
 import com.ravi.apps.android.newsbytes.sync.NewsSyncAdapter;
 
 /**
- * Triggers an immediate data fetch using the sync adapter upon device boot completion.
+ * Triggers an immediate data fetch using the sync adapter upon device boot completion, and
+ * resumes downloading the images of favorites.
  */
 public class NewsReceiver extends BroadcastReceiver {
 
@@ -42,7 +44,10 @@ public class NewsReceiver extends BroadcastReceiver {
         if(Intent.ACTION_BOOT_COMPLETED.equals(action) || Intent.ACTION_REBOOT.equals(action)) {
             // Initialize the sync adapter and trigger an immediate sync.
             NewsSyncAdapter.initializeSyncAdapter(context);
-            NewsSyncAdapter.syncImmediately(context);
+            NewsSyncAdapter.syncImmediately(context, false);
+
+            // Resume downloading the images of any favorites still waiting for them.
+            FavoriteMediaService.start(context);
         }
     }
 }
@@ -20,13 +20,16 @@ import android.app.IntentService;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Intent;
+import android.database.Cursor;
 
 import com.ravi.apps.android.newsbytes.DetailsFragment;
 import com.ravi.apps.android.newsbytes.News;
 import com.ravi.apps.android.newsbytes.data.NewsContract;
 
 /**
- * Adds a favorite news story into the database through a content provider.
+ * Adds a favorite news story into the database through a content provider. The story is
+ * saved right away, marked as waiting for its images, and the favorite media service is then
+ * started to download the thumbnail and photo into the image store.
  */
 public class AddFavoriteService extends IntentService {
 
@@ -48,8 +51,38 @@ public class AddFavoriteService extends IntentService {
         // Get the content resolver.
         mContentResolver = getContentResolver();
 
-        // Insert the favorite news story into the database.
-        insertNews();
+        // Insert the favorite news story into the database, unless it's already saved, and
+        // download its images.
+        if(!isFavorite()) {
+            insertNews();
+            FavoriteMediaService.start(this);
+        }
+    }
+
+    // Checks whether the news story is already saved as a favorite.
+    private boolean isFavorite() {
+        if(mNews.getUriStory() == null) {
+            return false;
+        }
+
+        // Look up the story through the unique story index.
+        Cursor cursor = mContentResolver.query(
+                NewsContract.NewsEntry.CONTENT_URI,
+                new String[]{NewsContract.NewsEntry._ID},
+                NewsContract.NewsEntry.COLUMN_IS_FAVORITE + "=? AND " +
+                        NewsContract.NewsEntry.COLUMN_SECTION + "=? AND " +
+                        NewsContract.NewsEntry.COLUMN_URI_STORY + "=?",
+                new String[]{Integer.toString(1), NewsContract.NewsEntry.SECTION_FAVORITES,
+                        mNews.getUriStory()},
+                null);
+        if(cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.getCount() > 0;
+        } finally {
+            cursor.close();
+        }
     }
 
     private void insertNews() {
@@ -62,15 +95,18 @@ public class AddFavoriteService extends IntentService {
         newsValues.put(NewsContract.NewsEntry.COLUMN_URI_STORY, mNews.getUriStory());
         newsValues.put(NewsContract.NewsEntry.COLUMN_AUTHOR, mNews.getAuthor());
         newsValues.put(NewsContract.NewsEntry.COLUMN_DATE, mNews.getDate());
+        newsValues.put(NewsContract.NewsEntry.COLUMN_DATE_MILLIS, mNews.getDateMillis());
+        newsValues.put(NewsContract.NewsEntry.COLUMN_DATE_DISPLAY, mNews.getDateDisplay());
         newsValues.put(NewsContract.NewsEntry.COLUMN_URI_THUMBNAIL, mNews.getUriThumbnail());
-        newsValues.put(NewsContract.NewsEntry.COLUMN_THUMBNAIL, mNews.getThumbnail());
         newsValues.put(NewsContract.NewsEntry.COLUMN_CAPTION_THUMBNAIL, mNews.getCaptionThumbnail());
         newsValues.put(NewsContract.NewsEntry.COLUMN_COPYRIGHT_THUMBNAIL, mNews.getCopyrightThumbnail());
         newsValues.put(NewsContract.NewsEntry.COLUMN_URI_PHOTO, mNews.getUriPhoto());
-        newsValues.put(NewsContract.NewsEntry.COLUMN_PHOTO, mNews.getPhoto());
         newsValues.put(NewsContract.NewsEntry.COLUMN_CAPTION_PHOTO, mNews.getCaptionPhoto());
         newsValues.put(NewsContract.NewsEntry.COLUMN_COPYRIGHT_PHOTO, mNews.getCopyrightPhoto());
+        newsValues.put(NewsContract.NewsEntry.COLUMN_SECTION, NewsContract.NewsEntry.SECTION_FAVORITES);
         newsValues.put(NewsContract.NewsEntry.COLUMN_IS_FAVORITE, mNews.getIsFavorite());
+        newsValues.put(NewsContract.NewsEntry.COLUMN_MEDIA_PENDING,
+                mNews.getUriThumbnail() != null || mNews.getUriPhoto() != null ? 1 : 0);
 
         // Insert into database through content provider.
         mContentResolver.insert(NewsContract.NewsEntry.CONTENT_URI, newsValues);
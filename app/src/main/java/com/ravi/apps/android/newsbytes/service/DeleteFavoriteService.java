@@ -54,14 +54,22 @@ public class DeleteFavoriteService extends IntentService {
 
     // Deletes specific favorite news story from database.
     private void deleteFavorite(News news) {
-        // Get headline from the news object.
-        String headline = news.getHeadline();
-
-        // Selection criteria and arguments.
-        final String selection = NewsContract.NewsEntry.COLUMN_IS_FAVORITE + "=? AND " +
-                NewsContract.NewsEntry.COLUMN_HEADLINE + "=?";
+        // Selection criteria and arguments, matching the story by its uri through the unique
+        // story index. Stories without a uri can only be matched by their headline.
+        final String selection;
         String[] selectionArgs;
-        selectionArgs = new String[]{Integer.toString(1), headline};
+        if(news.getUriStory() != null) {
+            selection = NewsContract.NewsEntry.COLUMN_IS_FAVORITE + "=? AND " +
+                    NewsContract.NewsEntry.COLUMN_SECTION + "=? AND " +
+                    NewsContract.NewsEntry.COLUMN_URI_STORY + "=?";
+            selectionArgs = new String[]{Integer.toString(1),
+                    NewsContract.NewsEntry.SECTION_FAVORITES, news.getUriStory()};
+        } else {
+            selection = NewsContract.NewsEntry.COLUMN_IS_FAVORITE + "=? AND " +
+                    NewsContract.NewsEntry.COLUMN_URI_STORY + " IS NULL AND " +
+                    NewsContract.NewsEntry.COLUMN_HEADLINE + "=?";
+            selectionArgs = new String[]{Integer.toString(1), news.getHeadline()};
+        }
 
         // Delete from database through content provider.
         mContentResolver.delete(NewsContract.NewsEntry.CONTENT_URI, selection, selectionArgs);
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2015 Ravi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ravi.apps.android.newsbytes.service;
+
+import android.app.IntentService;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import com.ravi.apps.android.newsbytes.R;
+import com.ravi.apps.android.newsbytes.Utility;
+import com.ravi.apps.android.newsbytes.data.NewsContract.NewsEntry;
+import com.ravi.apps.android.newsbytes.net.NewsImageLoader;
+import com.ravi.apps.android.newsbytes.receiver.ConnectivityReceiver;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Downloads the thumbnails and photos of the favorite stories waiting for them into the image
+ * store, so the favorites can be read offline. The favorites waiting are marked in the
+ * database, so the downloads pick up where they stopped whenever the service runs again:
+ * after a favorite is added, when the app is opened and when the device connects to a network.
+ * The receiver of the network connections is only enabled while favorites are left waiting.
+ * Images are taken from the image cache where they were shown, else downloaded into it, so an
+ * image shared by several favorites is downloaded once. The requests are handled one at a
+ * time, and each finds only the favorites still waiting, so repeated requests for the same
+ * favorite don't download anything twice. A url that failed isn't tried again in the same run.
+ * Over a metered network only the thumbnails are downloaded, unless the user allows the photos
+ * too.
+ */
+public class FavoriteMediaService extends IntentService {
+
+    // Tag for logging messages.
+    private static final String LOG_TAG = FavoriteMediaService.class.getSimpleName();
+
+    // Projection and column indices for the favorites waiting for their images.
+    private static final String[] PENDING_PROJECTION = {
+            NewsEntry._ID,
+            NewsEntry.COLUMN_URI_THUMBNAIL,
+            NewsEntry.COLUMN_THUMBNAIL_KEY,
+            NewsEntry.COLUMN_URI_PHOTO,
+            NewsEntry.COLUMN_PHOTO_KEY
+    };
+    private static final int COL_ID = 0;
+    private static final int COL_URI_THUMBNAIL = 1;
+    private static final int COL_THUMBNAIL_KEY = 2;
+    private static final int COL_URI_PHOTO = 3;
+    private static final int COL_PHOTO_KEY = 4;
+
+    // Urls that can't be fetched in this run, or ever.
+    private final Set<String> mFailedUrls = new HashSet<String>();
+    private final Set<String> mMissingUrls = new HashSet<String>();
+
+    public FavoriteMediaService() {
+        super("FavoriteMediaService");
+
+        // Start over with the same request if the process is killed while downloading.
+        setIntentRedelivery(true);
+    }
+
+    /**
+     * Starts the service, to download the images of any favorites waiting for them. Requests
+     * made while it runs are queued, and find nothing left to download but new favorites.
+     */
+    public static void start(Context context) {
+        context.startService(new Intent(context, FavoriteMediaService.class));
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        // Work out what the network allows. Cached images are taken even while offline.
+        boolean isConnected = isConnected();
+        boolean isPhotoNetworkAllowed = isConnected
+                && (!isNetworkMetered() || Utility.getFavoriteMediaMeteredPreference(this, null));
+
+        Cursor cursor = getContentResolver().query(
+                NewsEntry.FAVORITES_URI,
+                PENDING_PROJECTION,
+                NewsEntry.COLUMN_MEDIA_PENDING + "=?",
+                new String[]{Integer.toString(1)},
+                null);
+        if(cursor == null) {
+            return;
+        }
+
+        boolean isPending = false;
+        try {
+            while(cursor.moveToNext()) {
+                ContentValues values = new ContentValues();
+                boolean isComplete = fetchImage(cursor.getString(COL_URI_THUMBNAIL),
+                        cursor.getString(COL_THUMBNAIL_KEY), isConnected, values,
+                        NewsEntry.COLUMN_THUMBNAIL);
+                isComplete &= fetchImage(cursor.getString(COL_URI_PHOTO),
+                        cursor.getString(COL_PHOTO_KEY), isPhotoNetworkAllowed, values,
+                        NewsEntry.COLUMN_PHOTO);
+                if(isComplete) {
+                    values.put(NewsEntry.COLUMN_MEDIA_PENDING, 0);
+                }
+
+                // Save the images of the favorite as soon as they're in, so they aren't
+                // downloaded again if the service is stopped before the next one.
+                if(values.size() > 0) {
+                    long id = cursor.getLong(COL_ID);
+                    try {
+                        getContentResolver().update(NewsEntry.buildNewsUri(id), values,
+                                null, null);
+                    } catch(SQLException e) {
+                        // The images couldn't be stored, the disk may be full. Leave the
+                        // favorite waiting and go on with the next.
+                        Log.e(LOG_TAG, getString(R.string.log_favorite_image_save_failed) + id);
+                        isComplete = false;
+                    }
+                }
+                isPending |= !isComplete;
+            }
+        } finally {
+            cursor.close();
+            mFailedUrls.clear();
+            mMissingUrls.clear();
+        }
+
+        // Listen for network connections only while favorites are left waiting.
+        ConnectivityReceiver.setEnabled(this, isPending);
+    }
+
+    // Returns whether the device is connected to a network.
+    boolean isConnected() {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    // Returns whether the network the device is connected to is metered.
+    boolean isNetworkMetered() {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        return connectivityManager.isActiveNetworkMetered();
+    }
+
+    /**
+     * Returns the bytes of the image at the url, from the image cache or else from the network
+     * if allowed, or null if it isn't cached and the network isn't allowed.
+     */
+    byte[] getOriginalBytes(String url, boolean isNetworkAllowed) throws IOException {
+        return NewsImageLoader.getInstance(this).getOriginalBytes(url, isNetworkAllowed);
+    }
+
+    /**
+     * Puts the bytes of the image at the url into the values under the column, unless it's
+     * stored already. Returns whether nothing is left to fetch for the image.
+     */
+    private boolean fetchImage(String url, String key, boolean isNetworkAllowed,
+                               ContentValues values, String bytesColumn) {
+        if(url == null || url.isEmpty() || key != null || mMissingUrls.contains(url)) {
+            return true;
+        }
+
+        byte[] bytes = null;
+        if(!mFailedUrls.contains(url)) {
+            try {
+                bytes = getOriginalBytes(url, isNetworkAllowed);
+            } catch(NewsImageLoader.ImageStatusException e) {
+                Log.e(LOG_TAG, getString(R.string.log_favorite_image_failed) + url);
+                if(e.isPermanent()) {
+                    // The image is gone from the server, so stop waiting for it.
+                    mMissingUrls.add(url);
+                    return true;
+                }
+            } catch(IOException e) {
+                Log.e(LOG_TAG, getString(R.string.log_favorite_image_failed) + url);
+            }
+
+            if(bytes != null) {
+                int budgetKb = getResources().getInteger(R.integer.favorite_image_budget_kb);
+                if(budgetKb > 0) {
+                    bytes = NewsImageLoader.fitToBudget(bytes, budgetKb * 1024,
+                            getResources().getInteger(R.integer.favorite_image_jpeg_quality));
+                }
+            } else {
+                mFailedUrls.add(url);
+            }
+        }
+
+        if(bytes == null) {
+            return false;
+        }
+        values.put(bytesColumn, bytes);
+        return true;
+    }
+}
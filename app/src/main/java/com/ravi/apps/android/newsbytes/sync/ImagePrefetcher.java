@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2015 Ravi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ravi.apps.android.newsbytes.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import com.ravi.apps.android.newsbytes.R;
+import com.ravi.apps.android.newsbytes.data.NewsContract.NewsEntry;
+import com.ravi.apps.android.newsbytes.net.NewsHttpClient;
+import com.squareup.okhttp.CacheControl;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+import okio.BufferedSource;
+
+/**
+ * Downloads the images of the top stories of a section into the disk cache of the image
+ * client, so that the headlines and details screens render from the cache. The images are
+ * only downloaded, not decoded, and only while the device is on an unmetered network.
+ */
+public class ImagePrefetcher {
+
+    // Tag for logging messages.
+    private static final String LOG_TAG = ImagePrefetcher.class.getSimpleName();
+
+    // Maximum number of images downloaded in parallel.
+    private static final int MAX_CONCURRENT_PREFETCHES = 2;
+
+    // Longest time to wait for the prefetch to finish, in seconds.
+    private static final int PREFETCH_TIMEOUT_SECONDS = 60;
+
+    // Size of the chunks the downloaded images are read in.
+    private static final int READ_CHUNK_SIZE = 8 * 1024;
+
+    // Projection and column indices for the image urls of the stories.
+    private static final String[] PREFETCH_PROJECTION = {
+            NewsEntry.COLUMN_URI_THUMBNAIL,
+            NewsEntry.COLUMN_URI_PHOTO
+    };
+    private static final int COL_URI_THUMBNAIL = 0;
+    private static final int COL_URI_PHOTO = 1;
+
+    private final Context mContext;
+
+    public ImagePrefetcher(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Returns whether the device is connected to a network that isn't metered.
+     */
+    public static boolean isOnUnmeteredNetwork(Context context) {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected()
+                && !connectivityManager.isActiveNetworkMetered();
+    }
+
+    /**
+     * Downloads the images of the top stories of the section, in the order the headlines
+     * list shows them, waiting until they are done. Images already cached are skipped.
+     * Returns the number of images downloaded.
+     */
+    public int prefetch(String section) throws InterruptedException {
+        List<String> urls = getImageUrls(section);
+        if(urls.isEmpty()) {
+            return 0;
+        }
+
+        // Download the images on a bounded pool of threads.
+        final OkHttpClient imageClient = NewsHttpClient.getInstance(mContext).getImageClient();
+        ExecutorService executorService = Executors.newFixedThreadPool(
+                Math.min(urls.size(), MAX_CONCURRENT_PREFETCHES));
+        List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(urls.size());
+        for(final String url : urls) {
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return download(imageClient, url);
+                }
+            });
+        }
+
+        int prefetchCount = 0;
+        try {
+            List<Future<Boolean>> futures = executorService.invokeAll(
+                    tasks, PREFETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            for(Future<Boolean> future : futures) {
+                if(!future.isCancelled() && Boolean.TRUE.equals(getQuietly(future))) {
+                    prefetchCount++;
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        return prefetchCount;
+    }
+
+    /**
+     * Returns the distinct image urls of the top stories of the section. Photos are only
+     * included if configured.
+     */
+    private List<String> getImageUrls(String section) {
+        int storyCount = mContext.getResources().getInteger(R.integer.prefetch_story_count);
+        boolean includePhotos = mContext.getResources().getBoolean(R.bool.prefetch_photos);
+
+        // Query the stories the same way the headlines list does.
+        Cursor cursor = mContext.getContentResolver().query(
+                NewsEntry.buildSectionUri(section),
+                PREFETCH_PROJECTION,
+                null,
+                null,
+                NewsEntry.COLUMN_DATE_MILLIS + mContext.getString(R.string.descending_sort_order));
+
+        // Thumbnails come first, so they are downloaded before any photo.
+        Set<String> thumbnailUrls = new LinkedHashSet<String>();
+        Set<String> photoUrls = new LinkedHashSet<String>();
+        if(cursor != null) {
+            try {
+                while(cursor.moveToNext() && cursor.getPosition() < storyCount) {
+                    addUrl(thumbnailUrls, cursor.getString(COL_URI_THUMBNAIL));
+                    if(includePhotos) {
+                        addUrl(photoUrls, cursor.getString(COL_URI_PHOTO));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        List<String> urls = new ArrayList<String>(thumbnailUrls);
+        urls.addAll(photoUrls);
+        return urls;
+    }
+
+    // Adds the url, if present.
+    private static void addUrl(Set<String> urls, String url) {
+        if(url != null) {
+            urls.add(url);
+        }
+    }
+
+    /**
+     * Downloads the image, reading the whole body so that the client caches it, unless it's
+     * in the cache already. Returns whether it was downloaded.
+     */
+    private boolean download(OkHttpClient imageClient, String url) {
+        try {
+            // Images in the cache, whatever their freshness, don't go to the network.
+            Response cachedResponse = imageClient.newCall(new Request.Builder()
+                    .url(url)
+                    .cacheControl(CacheControl.FORCE_CACHE)
+                    .build()).execute();
+            cachedResponse.body().close();
+            if(cachedResponse.isSuccessful()) {
+                return false;
+            }
+
+            Response response = imageClient.newCall(new Request.Builder().url(url).build())
+                    .execute();
+            try {
+                if(!response.isSuccessful()) {
+                    return false;
+                }
+
+                // Drain the body chunk by chunk, it only needs to reach the disk cache.
+                BufferedSource source = response.body().source();
+                Buffer buffer = new Buffer();
+                while(source.read(buffer, READ_CHUNK_SIZE) != -1) {
+                    buffer.clear();
+                }
+                return true;
+            } finally {
+                response.body().close();
+            }
+        } catch(IOException e) {
+            Log.d(LOG_TAG, mContext.getString(R.string.log_prefetch_failed) + url);
+            return false;
+        }
+    }
+
+    // Returns the result of the completed task, or null if it failed.
+    private static Boolean getQuietly(Future<Boolean> future)
+            throws InterruptedException {
+        try {
+            return future.get();
+        } catch(ExecutionException e) {
+            return null;
+        }
+    }
+}
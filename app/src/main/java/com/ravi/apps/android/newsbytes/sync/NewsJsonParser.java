@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2015 Ravi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ravi.apps.android.newsbytes.sync;
+
+import android.content.ContentValues;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.ravi.apps.android.newsbytes.data.NewsContract;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Vector;
+
+/**
+ * Parses the New York Times top stories response directly off the input stream. Only the
+ * fields stored in the news table are extracted, everything else is skipped token by token,
+ * so the response is never held in memory as a whole.
+ */
+public class NewsJsonParser {
+
+    // Character set of the query response.
+    private static final String NYT_CHARSET = "UTF-8";
+
+    // JSON fields in the query response.
+    private static final String NYT_RESULTS = "results";
+    private static final String NYT_TITLE = "title";
+    private static final String NYT_ABSTRACT = "abstract";
+    private static final String NYT_URL = "url";
+    private static final String NYT_BYLINE = "byline";
+    private static final String NYT_PUBLISHED_DATE = "published_date";
+    private static final String NYT_MULTIMEDIA = "multimedia";
+    private static final String NYT_FORMAT = "format";
+    private static final String NYT_CAPTION = "caption";
+    private static final String NYT_COPYRIGHT = "copyright";
+
+    // JSON format field values.
+    private static final String NYT_FORMAT_STANDARD_THUMBNAIL = "Standard Thumbnail";
+    private static final String NYT_FORMAT_NORMAL = "Normal";
+
+    private NewsJsonParser() {
+    }
+
+    /**
+     * Parses the input stream in JSON format and returns the content values for each of the
+     * news stories found in the results. Throws a malformed JSON exception if the response
+     * does not have the expected structure and an IO exception in case of any read error.
+     */
+    public static Vector<ContentValues> parse(InputStream inputStream) throws IOException {
+        // Create the pull parser over the response stream.
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, NYT_CHARSET));
+
+        // Create a vector of content values to hold the news stories.
+        Vector<ContentValues> vectorContentValues = new Vector<ContentValues>();
+
+        try {
+            // Traverse the top level object looking for the results array.
+            reader.beginObject();
+            while(reader.hasNext()) {
+                if(NYT_RESULTS.equals(reader.nextName())
+                        && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    readResults(reader, vectorContentValues);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch(IllegalStateException e) {
+            // Unexpected token, report it the same way as a syntax error.
+            throw new MalformedJsonException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+
+        return vectorContentValues;
+    }
+
+    /**
+     * Reads the results array and adds a content values entry for every valid news story.
+     */
+    private static void readResults(JsonReader reader, Vector<ContentValues> vectorContentValues)
+            throws IOException {
+        reader.beginArray();
+        while(reader.hasNext()) {
+            // Skip anything that is not a news story object.
+            if(reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+
+            // Read the news story and add it into the vector if valid.
+            ContentValues newsValues = readNewsStory(reader);
+            if(newsValues != null) {
+                vectorContentValues.add(newsValues);
+            }
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Reads a single news story object. Returns null if the story has no headline
+     * or no multimedia array, in which case it is skipped.
+     */
+    private static ContentValues readNewsStory(JsonReader reader) throws IOException {
+        // News story fields.
+        String headline = null;
+        String summary = null;
+        String uriStory = null;
+        String author = null;
+        String date = null;
+
+        // Holds the thumbnail and photo details extracted from the multimedia array.
+        ContentValues imageValues = null;
+
+        reader.beginObject();
+        while(reader.hasNext()) {
+            String name = reader.nextName();
+            if(NYT_TITLE.equals(name)) {
+                headline = readNonEmptyString(reader);
+            } else if(NYT_ABSTRACT.equals(name)) {
+                summary = readNonEmptyString(reader);
+            } else if(NYT_URL.equals(name)) {
+                uriStory = readNonEmptyString(reader);
+            } else if(NYT_BYLINE.equals(name)) {
+                author = readNonEmptyString(reader);
+            } else if(NYT_PUBLISHED_DATE.equals(name)) {
+                date = readNonEmptyString(reader);
+            } else if(NYT_MULTIMEDIA.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                imageValues = readMultimedia(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // No headline or no thumbnail and photo found, skip this story.
+        if(headline == null || imageValues == null) {
+            return null;
+        }
+
+        // Create content values for this news story.
+        ContentValues newsValues = new ContentValues();
+
+        newsValues.put(NewsContract.NewsEntry.COLUMN_HEADLINE, headline);
+        newsValues.put(NewsContract.NewsEntry.COLUMN_SUMMARY, summary);
+        newsValues.put(NewsContract.NewsEntry.COLUMN_URI_STORY, uriStory);
+        newsValues.put(NewsContract.NewsEntry.COLUMN_AUTHOR, author);
+        newsValues.put(NewsContract.NewsEntry.COLUMN_DATE, date);
+        newsValues.put(NewsContract.NewsEntry.COLUMN_URI_THUMBNAIL,
+                imageValues.getAsString(NewsContract.NewsEntry.COLUMN_URI_THUMBNAIL));
+        newsValues.put(NewsContract.NewsEntry.COLUMN_CAPTION_THUMBNAIL,
+                imageValues.getAsString(NewsContract.NewsEntry.COLUMN_CAPTION_THUMBNAIL));
+        newsValues.put(NewsContract.NewsEntry.COLUMN_COPYRIGHT_THUMBNAIL,
+                imageValues.getAsString(NewsContract.NewsEntry.COLUMN_COPYRIGHT_THUMBNAIL));
+        newsValues.put(NewsContract.NewsEntry.COLUMN_URI_PHOTO,
+                imageValues.getAsString(NewsContract.NewsEntry.COLUMN_URI_PHOTO));
+        newsValues.put(NewsContract.NewsEntry.COLUMN_CAPTION_PHOTO,
+                imageValues.getAsString(NewsContract.NewsEntry.COLUMN_CAPTION_PHOTO));
+        newsValues.put(NewsContract.NewsEntry.COLUMN_COPYRIGHT_PHOTO,
+                imageValues.getAsString(NewsContract.NewsEntry.COLUMN_COPYRIGHT_PHOTO));
+
+        // Marked as favorite, false for now.
+        newsValues.put(NewsContract.NewsEntry.COLUMN_IS_FAVORITE, 0);
+
+        return newsValues;
+    }
+
+    /**
+     * Reads the multimedia array and returns the uri, caption and copyright of the
+     * standard thumbnail and normal photo formats. All other formats are skipped.
+     */
+    private static ContentValues readMultimedia(JsonReader reader) throws IOException {
+        ContentValues imageValues = new ContentValues();
+
+        reader.beginArray();
+        while(reader.hasNext()) {
+            // Skip anything that is not an image object.
+            if(reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+
+            // Image fields.
+            String format = null;
+            String uri = null;
+            String caption = null;
+            String copyright = null;
+
+            reader.beginObject();
+            while(reader.hasNext()) {
+                String name = reader.nextName();
+                if(NYT_FORMAT.equals(name)) {
+                    format = readNonEmptyString(reader);
+                } else if(NYT_URL.equals(name)) {
+                    uri = readNonEmptyString(reader);
+                } else if(NYT_CAPTION.equals(name)) {
+                    caption = readNonEmptyString(reader);
+                } else if(NYT_COPYRIGHT.equals(name)) {
+                    copyright = readNonEmptyString(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            // Image format or uri not found, skip this image.
+            if(format == null || uri == null) {
+                continue;
+            }
+
+            // Keep the image only if it's thumbnail or normal format.
+            if(format.equals(NYT_FORMAT_STANDARD_THUMBNAIL)) {
+                imageValues.put(NewsContract.NewsEntry.COLUMN_URI_THUMBNAIL, uri);
+                imageValues.put(NewsContract.NewsEntry.COLUMN_CAPTION_THUMBNAIL, caption);
+                imageValues.put(NewsContract.NewsEntry.COLUMN_COPYRIGHT_THUMBNAIL, copyright);
+            } else if(format.equals(NYT_FORMAT_NORMAL)) {
+                imageValues.put(NewsContract.NewsEntry.COLUMN_URI_PHOTO, uri);
+                imageValues.put(NewsContract.NewsEntry.COLUMN_CAPTION_PHOTO, caption);
+                imageValues.put(NewsContract.NewsEntry.COLUMN_COPYRIGHT_PHOTO, copyright);
+            }
+        }
+        reader.endArray();
+
+        return imageValues;
+    }
+
+    /**
+     * Returns the next value if it is a non-empty string, else skips it and returns null.
+     */
+    private static String readNonEmptyString(JsonReader reader) throws IOException {
+        if(reader.peek() != JsonToken.STRING) {
+            reader.skipValue();
+            return null;
+        }
+
+        String value = reader.nextString();
+        return value.isEmpty() ? null : value;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 Ravi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ravi.apps.android.newsbytes.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import com.ravi.apps.android.newsbytes.data.NewsContract.NewsEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+/**
+ * Merges the news stories of a freshly synced section into the stories already stored for it.
+ * Stories are matched by their story uri, so only new stories are inserted, only changed
+ * stories are updated and only stories that left the feed are deleted. Stories that are
+ * still in the feed keep their row ids.
+ */
+public class NewsMerger {
+
+    // Projection of the stored stories, holding the columns written by the sync.
+    public static final String[] MERGE_PROJECTION = {
+            NewsEntry._ID,
+            NewsEntry.COLUMN_URI_STORY,
+            NewsEntry.COLUMN_HEADLINE,
+            NewsEntry.COLUMN_SUMMARY,
+            NewsEntry.COLUMN_AUTHOR,
+            NewsEntry.COLUMN_DATE,
+            NewsEntry.COLUMN_DATE_DISPLAY,
+            NewsEntry.COLUMN_URI_THUMBNAIL,
+            NewsEntry.COLUMN_CAPTION_THUMBNAIL,
+            NewsEntry.COLUMN_COPYRIGHT_THUMBNAIL,
+            NewsEntry.COLUMN_URI_PHOTO,
+            NewsEntry.COLUMN_CAPTION_PHOTO,
+            NewsEntry.COLUMN_COPYRIGHT_PHOTO
+    };
+
+    // Column indices tied to the merge projection.
+    private static final int COL_ID = 0;
+    private static final int COL_URI_STORY = 1;
+    private static final int COL_HEADLINE = 2;
+
+    // Number of rows to be inserted, updated and deleted by the last merge.
+    private int mInsertCount;
+    private int mUpdateCount;
+    private int mDeleteCount;
+
+    /**
+     * Compares the stored stories of the section, read through the merge projection, with
+     * the stories from the feed and returns the operations that bring the stored stories
+     * up to date. Returns an empty list if nothing changed.
+     */
+    public ArrayList<ContentProviderOperation> merge(Cursor storedCursor, String section,
+                                                     Vector<ContentValues> feedStories) {
+        mInsertCount = 0;
+        mUpdateCount = 0;
+        mDeleteCount = 0;
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+
+        // Map the feed stories by their identity, dropping any repeats within the feed.
+        Map<String, ContentValues> feedStoryMap = new HashMap<String, ContentValues>();
+        for(ContentValues newsValues : feedStories) {
+            String key = getStoryKey(newsValues.getAsString(NewsEntry.COLUMN_URI_STORY),
+                    newsValues.getAsString(NewsEntry.COLUMN_HEADLINE));
+            if(!feedStoryMap.containsKey(key)) {
+                newsValues.put(NewsEntry.COLUMN_SECTION, section);
+                feedStoryMap.put(key, newsValues);
+            }
+        }
+
+        // Walk the stored stories, updating the changed ones and deleting the ones that left.
+        Set<String> storedKeys = new HashSet<String>();
+        while(storedCursor.moveToNext()) {
+            long id = storedCursor.getLong(COL_ID);
+            String key = getStoryKey(storedCursor.getString(COL_URI_STORY),
+                    storedCursor.getString(COL_HEADLINE));
+            ContentValues newsValues = feedStoryMap.get(key);
+
+            if(newsValues == null || !storedKeys.add(key)) {
+                // Story is no longer in the feed, or is a repeat of a stored story.
+                operations.add(ContentProviderOperation.newDelete(NewsEntry.buildNewsUri(id))
+                        .build());
+                mDeleteCount++;
+            } else if(hasChanged(storedCursor, newsValues)) {
+                // Story is still in the feed but some of its details changed.
+                operations.add(ContentProviderOperation.newUpdate(NewsEntry.buildNewsUri(id))
+                        .withValues(newsValues)
+                        .build());
+                mUpdateCount++;
+            }
+        }
+
+        // Insert the stories that are new in the feed.
+        for(Map.Entry<String, ContentValues> entry : feedStoryMap.entrySet()) {
+            if(!storedKeys.contains(entry.getKey())) {
+                operations.add(ContentProviderOperation.newInsert(NewsEntry.CONTENT_URI)
+                        .withValues(entry.getValue())
+                        .build());
+                mInsertCount++;
+            }
+        }
+
+        return operations;
+    }
+
+    // Returns the number of rows to be inserted by the last merge.
+    public int getInsertCount() {
+        return mInsertCount;
+    }
+
+    // Returns the number of rows to be updated by the last merge.
+    public int getUpdateCount() {
+        return mUpdateCount;
+    }
+
+    // Returns the number of rows to be deleted by the last merge.
+    public int getDeleteCount() {
+        return mDeleteCount;
+    }
+
+    /**
+     * Returns the stable identity of a story - its uri, or its headline if it has no uri.
+     */
+    private static String getStoryKey(String uriStory, String headline) {
+        return uriStory != null ? uriStory : headline;
+    }
+
+    /**
+     * Returns whether any of the synced columns of the stored story differ from the feed.
+     */
+    private static boolean hasChanged(Cursor storedCursor, ContentValues newsValues) {
+        for(int i = COL_HEADLINE; i < MERGE_PROJECTION.length; i++) {
+            if(!TextUtils.equals(storedCursor.getString(i),
+                    newsValues.getAsString(MERGE_PROJECTION[i]))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -23,35 +23,46 @@ import android.app.PendingIntent;
 import android.app.TaskStackBuilder;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SyncRequest;
 import android.content.SyncResult;
+import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.support.v4.app.NotificationCompat;
 import android.util.Log;
+import android.util.MalformedJsonException;
 
 import com.ravi.apps.android.newsbytes.MainActivity;
 import com.ravi.apps.android.newsbytes.R;
 import com.ravi.apps.android.newsbytes.Utility;
 import com.ravi.apps.android.newsbytes.data.NewsContract;
+import com.ravi.apps.android.newsbytes.data.NewsNormalizer;
+import com.ravi.apps.android.newsbytes.net.NewsHttpClient;
+import com.ravi.apps.android.newsbytes.net.RequestTimings;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Sync adapter to query the news data from the New York Times server.
@@ -62,47 +73,70 @@ public class NewsSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final String LOG_TAG = NewsSyncAdapter.class.getSimpleName();
 
     // Base URL for the query.
-    private final String NYT_BASE_URL = "http://api.nytimes.com/svc/topstories/v1/";
+    private static final String NYT_BASE_URL = "http://api.nytimes.com/svc/topstories/v1/";
 
     // Query parameter.
     private final String NYT_API_KEY_PARAM = "api-key";
 
     // Query parameter values.
-    private final String NYT_SECTION_WORLD = "world";
-    private final String NYT_SECTION_BUSINESS = "business";
-    private final String NYT_SECTION_TECHNOLOGY = "technology";
-    private final String NYT_SECTION_HEALTH = "health";
-    private final String NYT_SECTION_TRAVEL = "travel";
-    private final String NYT_SECTION_SPORTS = "sports";
+    private static final String NYT_SECTION_WORLD = "world";
+    private static final String NYT_SECTION_BUSINESS = "business";
+    private static final String NYT_SECTION_TECHNOLOGY = "technology";
+    private static final String NYT_SECTION_HEALTH = "health";
+    private static final String NYT_SECTION_TRAVEL = "travel";
+    private static final String NYT_SECTION_SPORTS = "sports";
     private final String NYT_RESPONSE_FORMAT = ".json";
     private final String NYT_API_KEY = getContext().getString(R.string.nyt_api_key);
 
-    // JSON fields in the query response.
-    private final String NYT_STATUS = "status";
-    private final String NYT_RESULTS = "results";
-    private final String NYT_TITLE = "title";
-    private final String NYT_ABSTRACT = "abstract";
-    private final String NYT_URL = "url";
-    private final String NYT_BYLINE = "byline";
-    private final String NYT_PUBLISHED_DATE = "published_date";
-    private final String NYT_MULTIMEDIA = "multimedia";
-    private final String NYT_FORMAT = "format";
-    private final String NYT_CAPTION = "caption";
-    private final String NYT_COPYRIGHT = "copyright";
-
-    // JSON format field values.
-    private final String NYT_FORMAT_STANDARD_THUMBNAIL = "Standard Thumbnail";
-    private final String NYT_FORMAT_NORMAL = "Normal";
-
-    // Interval at which to sync with the news server, in seconds.
+    // Request and response headers for the conditional query.
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
+
+    // Status code of a response to a client that exceeded its request quota.
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    // All the sections that can be synced.
+    private static final String[] NYT_SECTIONS = {
+            NYT_SECTION_WORLD,
+            NYT_SECTION_BUSINESS,
+            NYT_SECTION_TECHNOLOGY,
+            NYT_SECTION_HEALTH,
+            NYT_SECTION_TRAVEL,
+            NYT_SECTION_SPORTS
+    };
+
+    // Maximum number of sections fetched in parallel.
+    private static final int MAX_CONCURRENT_FETCHES = 3;
+
+    // Initial interval at which to sync with the news server, in seconds. It is adapted
+    // afterwards by the sync scheduler.
     public static final int SYNC_INTERVAL = 30 * 60;    // Half hour.
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL / 3;
 
     // News notification id.
     private static final int NEWS_NOTIFICATION_ID = 1234;
 
+    // Sync account, cached once it is known to exist.
+    private static Account sSyncAccount;
+
+    // Holds the response validators and change statistics between syncs.
+    private final SyncStateStore mSyncStateStore;
+
+    // Adapts the periodic sync interval.
+    private final SyncScheduler mSyncScheduler;
+
+    // Holds off syncing after failed syncs.
+    private final SyncBackoff mSyncBackoff;
+
     public NewsSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
+
+        mSyncStateStore = new SyncStateStore(context);
+        mSyncScheduler = new SyncScheduler(context, mSyncStateStore);
+        mSyncBackoff = new SyncBackoff(context, mSyncStateStore);
     }
 
     public static void initializeSyncAdapter(Context context) {
@@ -114,9 +148,14 @@ public class NewsSyncAdapter extends AbstractThreadedSyncAdapter {
     /**
      * Gets the fictitious account to be used with the sync adapter, or makes a new one
      * if the fictitious account doesn't exist yet.  If we make a new account, we call the
-     * onAccountCreated method so we can initialize things.
+     * onAccountCreated method so we can initialize things. The account is cached, so the
+     * account manager is only asked once per process.
      */
-    public static Account getSyncAccount(Context context) {
+    public static synchronized Account getSyncAccount(Context context) {
+        if(sSyncAccount != null) {
+            return sSyncAccount;
+        }
+
         // Get an instance of the android account manager.
         AccountManager accountManager =
                 (AccountManager) context.getSystemService(Context.ACCOUNT_SERVICE);
@@ -132,8 +171,11 @@ public class NewsSyncAdapter extends AbstractThreadedSyncAdapter {
                 return null;
             }
 
+            sSyncAccount = newAccount;
             onAccountCreated(newAccount, context);
         }
+
+        sSyncAccount = newAccount;
         return newAccount;
     }
 
@@ -158,351 +200,471 @@ public class NewsSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Instructs the sync adapter to sync immediately.
+     * Instructs the sync adapter to sync immediately, unless a sync is already on its way or
+     * the news data is still fresh. Pass force if the data is needed regardless of how fresh
+     * the stored data is, e.g. because the synced categories changed.
+     */
+    public static void syncImmediately(Context context, boolean force) {
+        SyncCoordinator.requestSync(context, force);
+    }
+
+    /**
+     * Opens a connection to the NYT server ahead of the next sync.
+     */
+    public static void preconnect(Context context) {
+        NewsHttpClient.getInstance(context).preconnect(NYT_BASE_URL);
+    }
+
+    /**
+     * Returns the NYT section holding the stories for the news category preference passed in,
+     * or null if the category is not backed by a section (favorites).
      */
-    public static void syncImmediately(Context context) {
-        Log.d(LOG_TAG, context.getString(R.string.log_sync_immediately));
-
-        Bundle bundle = new Bundle();
-        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
-        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
-        ContentResolver.requestSync(getSyncAccount(context),
-                context.getString(R.string.content_authority), bundle);
+    public static String getSectionForCategory(Context context, String newsCategoryPreference) {
+        if(newsCategoryPreference.equals(context.getString(R.string.pref_news_category_world))) {
+            return NYT_SECTION_WORLD;
+        } else if(newsCategoryPreference
+                .equals(context.getString(R.string.pref_news_category_business))) {
+            return NYT_SECTION_BUSINESS;
+        } else if(newsCategoryPreference
+                .equals(context.getString(R.string.pref_news_category_technology))) {
+            return NYT_SECTION_TECHNOLOGY;
+        } else if(newsCategoryPreference
+                .equals(context.getString(R.string.pref_news_category_health))) {
+            return NYT_SECTION_HEALTH;
+        } else if(newsCategoryPreference
+                .equals(context.getString(R.string.pref_news_category_travel))) {
+            return NYT_SECTION_TRAVEL;
+        } else if(newsCategoryPreference
+                .equals(context.getString(R.string.pref_news_category_sports))) {
+            return NYT_SECTION_SPORTS;
+        }
+
+        return null;
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, getContext().getString(R.string.log_on_perform_sync));
 
-        HttpURLConnection httpURLConnection = null;
-        BufferedReader bufferedReader = null;
+        // Determine the sections to sync.
+        String[] sections;
+        if(Utility.getSyncAllCategoriesPreference(getContext(), null)) {
+            // Sync every section so that switching categories is served from the database.
+            sections = NYT_SECTIONS;
+        } else {
+            // Sync only the section of the current news category preference.
+            String section = getSectionForCategory(getContext(),
+                    Utility.getNewsCategoryPreference(getContext(), null));
 
-        try {
-            String newsJsonStr = null;
+            // If favorites category is selected, no need to do a sync - simply return.
+            if(section == null) {
+                return;
+            }
+            sections = new String[]{section};
+        }
 
-            // Get the news category preference from shared preferences.
-            String newsCategoryPreference = Utility.getNewsCategoryPreference(getContext(), null);
+        // Don't sync while the circuit breaker is open after repeated API key or quota errors.
+        // Tell the framework to hold off until it closes, instead of waking up for nothing.
+        if(mSyncBackoff.isCircuitOpen()) {
+            Log.d(LOG_TAG, getContext().getString(R.string.log_sync_suspended));
+            syncResult.stats.numSkippedEntries += sections.length;
+            syncResult.delayUntil = mSyncBackoff.getCircuitOpenUntil() / 1000;
+            return;
+        }
 
-            // Set the news section query param value based on preference.
-            String newsCategory = null;
-            if(newsCategoryPreference
-                    .equals(getContext().getString(R.string.pref_news_category_favorites))) {
-                // If favorites category is selected, no need to do a sync - simply return.
+        // Time the phases of this run.
+        final SyncMetrics syncMetrics = new SyncMetrics();
+
+        // Fetch the sections in parallel on a bounded pool of threads.
+        ExecutorService executorService = Executors.newFixedThreadPool(
+                Math.min(sections.length, MAX_CONCURRENT_FETCHES));
+        List<Future<SectionResult>> futures = new ArrayList<Future<SectionResult>>(sections.length);
+        for(final String section : sections) {
+            futures.add(executorService.submit(new Callable<SectionResult>() {
+                @Override
+                public SectionResult call() throws IOException {
+                    return fetchSection(section, syncMetrics);
+                }
+            }));
+        }
+        executorService.shutdown();
+
+        // Merge the fetched sections one at a time, in order, on the sync thread, collecting
+        // the writes of all of them into a single batch.
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        List<SectionResult> mergedSections = new ArrayList<SectionResult>(sections.length);
+        boolean isDataUpdated = false;
+        boolean hasFailed = false;
+        boolean isQuotaError = false;
+        long retryAfterSeconds = 0;
+        for(int i = 0; i < sections.length; i++) {
+            try {
+                SectionResult sectionResult = futures.get(i).get();
+
+                // If the section has not changed since the last sync, there is nothing to do.
+                if(sectionResult.isNotModified) {
+                    Log.d(LOG_TAG, getContext().getString(R.string.log_sync_not_modified)
+                            + sections[i]);
+                    mSyncScheduler.recordSectionSynced(sections[i], false);
+                    syncResult.stats.numSkippedEntries++;
+                    continue;
+                }
+
+                // Check if the query returned any results. If not, log message and move on.
+                if(sectionResult.vectorContentValues.size() == 0) {
+                    Log.d(LOG_TAG, getContext().getString(R.string.msg_err_zero_results));
+                    continue;
+                }
+
+                // Merge the news stories of the section into the batch.
+                mergeNewsData(provider, sectionResult, operations, syncMetrics);
+                mergedSections.add(sectionResult);
+            } catch(RemoteException e) {
+                Log.e(LOG_TAG, getContext().getString(R.string.log_on_perform_sync_db_error)
+                        + e.getLocalizedMessage());
+                syncResult.databaseError = true;
+                hasFailed = true;
+            } catch(ExecutionException e) {
+                hasFailed = true;
+                Throwable cause = e.getCause();
+                if(cause instanceof QuotaException) {
+                    // API key rejected or quota exceeded, retrying soon won't help.
+                    Log.e(LOG_TAG, getContext().getString(R.string.log_on_perform_sync_quota_error)
+                            + cause.getLocalizedMessage());
+                    syncResult.stats.numAuthExceptions++;
+                    isQuotaError = true;
+                    retryAfterSeconds = Math.max(retryAfterSeconds,
+                            ((QuotaException) cause).retryAfterSeconds);
+                } else if(cause instanceof MalformedJsonException) {
+                    Log.e(LOG_TAG, getContext().getString(R.string.log_on_perform_sync_json_error)
+                            + cause.getLocalizedMessage());
+                    syncResult.stats.numParseExceptions++;
+                } else {
+                    Log.e(LOG_TAG, getContext().getString(R.string.log_on_perform_sync_io_error)
+                            + cause.getLocalizedMessage());
+                    syncResult.stats.numIoExceptions++;
+                }
+            } catch(InterruptedException e) {
+                // Sync was cancelled, stop waiting for the remaining sections.
+                executorService.shutdownNow();
+                Thread.currentThread().interrupt();
                 return;
-            } else if(newsCategoryPreference
-                    .equals(getContext().getString(R.string.pref_news_category_world))) {
-                newsCategory = NYT_SECTION_WORLD;
-            } else if(newsCategoryPreference
-                    .equals(getContext().getString(R.string.pref_news_category_business))) {
-                newsCategory = NYT_SECTION_BUSINESS;
-            } else if(newsCategoryPreference
-                    .equals(getContext().getString(R.string.pref_news_category_technology))) {
-                newsCategory = NYT_SECTION_TECHNOLOGY;
-            } else if(newsCategoryPreference
-                    .equals(getContext().getString(R.string.pref_news_category_health))) {
-                newsCategory = NYT_SECTION_HEALTH;
-            } else if(newsCategoryPreference
-                    .equals(getContext().getString(R.string.pref_news_category_travel))) {
-                newsCategory = NYT_SECTION_TRAVEL;
-            } else if(newsCategoryPreference
-                    .equals(getContext().getString(R.string.pref_news_category_sports))) {
-                newsCategory = NYT_SECTION_SPORTS;
             }
+        }
 
-            // Build the uri for querying data from NYT api.
-            Uri uri = Uri.parse(NYT_BASE_URL + newsCategory + NYT_RESPONSE_FORMAT)
-                    .buildUpon()
-                    .appendQueryParameter(NYT_API_KEY_PARAM, NYT_API_KEY)
-                    .build();
-
-            // Create the url for connecting to NYT server.
-            URL url = new URL(uri.toString());
-            Log.d(LOG_TAG, url.toString());
-
-            // Create the request to NYT server and open the connection.
-            httpURLConnection = (HttpURLConnection) url.openConnection();
-            httpURLConnection.setRequestMethod("GET");
-            httpURLConnection.connect();
-
-            // Read the response input stream into a string buffer.
-            InputStream inputStream = httpURLConnection.getInputStream();
-            bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
-
-            StringBuffer stringBuffer = new StringBuffer();
-            String line = null;
-            while ((line = bufferedReader.readLine()) != null) {
-                stringBuffer.append(line);
+        // Apply the batch through the provider client, all sections in one transaction with
+        // one round of change notifications. Only then are the sections recorded as synced.
+        try {
+            if(!operations.isEmpty()) {
+                long startTime = SystemClock.elapsedRealtime();
+                provider.applyBatch(operations);
+                syncMetrics.add(SyncMetrics.PHASE_APPLY_BATCH,
+                        SystemClock.elapsedRealtime() - startTime, 0);
             }
 
-            // Convert the string buffer to string.
-            newsJsonStr = stringBuffer.toString();
-            Log.d(LOG_TAG, newsJsonStr);
+            for(SectionResult sectionResult : mergedSections) {
+                boolean hasChanged = sectionResult.insertCount > 0
+                        || sectionResult.updateCount > 0 || sectionResult.deleteCount > 0;
+                if(hasChanged) {
+                    isDataUpdated = true;
+                }
+                mSyncScheduler.recordSectionSynced(sectionResult.section, hasChanged);
+                mSyncStateStore.saveValidators(sectionResult.section,
+                        sectionResult.eTag, sectionResult.lastModified);
 
-            // Parse the JSON string and extract the news data.
-            getNewsDataFromJson(newsJsonStr);
+                syncResult.stats.numInserts += sectionResult.insertCount;
+                syncResult.stats.numUpdates += sectionResult.updateCount;
+                syncResult.stats.numDeletes += sectionResult.deleteCount;
+            }
+        } catch(RemoteException e) {
+            Log.e(LOG_TAG, getContext().getString(R.string.log_on_perform_sync_db_error)
+                    + e.getLocalizedMessage());
+            syncResult.databaseError = true;
+            hasFailed = true;
+        } catch(OperationApplicationException e) {
+            Log.e(LOG_TAG, getContext().getString(R.string.log_on_perform_sync_db_error)
+                    + e.getLocalizedMessage());
+            syncResult.databaseError = true;
+            hasFailed = true;
+        }
+
+        // Remember when the sections synced, all of them or only the current category's, were
+        // last fetched without failures, so that redundant sync requests can be skipped. The
+        // requests that change the sections synced are forced and never skipped.
+        if(!hasFailed) {
+            mSyncStateStore.saveLastSyncTime(System.currentTimeMillis());
+        }
+
+        // Hold off the next sync after server or network failures, and reset the
+        // backoff once a sync gets through.
+        if(isQuotaError || syncResult.stats.numIoExceptions > 0
+                || syncResult.stats.numParseExceptions > 0) {
+            long delay = mSyncBackoff.recordFailure(isQuotaError, retryAfterSeconds);
+            syncResult.delayUntil = System.currentTimeMillis() / 1000 + delay;
+        } else if(!hasFailed) {
+            mSyncBackoff.recordSuccess();
+        }
+
+        // Adapt the periodic sync interval to how often the sections change.
+        mSyncScheduler.updatePeriodicSync(sections);
+
+        // Log the network usage of the shared client so far.
+        NewsHttpClient httpClient = NewsHttpClient.getInstance(getContext());
+        Log.d(LOG_TAG, getContext().getString(R.string.log_http_stats,
+                httpClient.getRequestCount(), httpClient.getConnectionCount(),
+                httpClient.getResponseBytes(), httpClient.getLatencyMillis()));
 
+        if(isDataUpdated) {
             // Send a local broadcast informing the widget to refresh it's data.
+            long startTime = SystemClock.elapsedRealtime();
             Utility.sendDataUpdatedBroadcast(getContext());
+            syncMetrics.add(SyncMetrics.PHASE_BROADCAST,
+                    SystemClock.elapsedRealtime() - startTime, 0);
 
             // Send a notification to the user that fresh news updates are now available.
             if(Utility.getNewsNotificationsPreference(getContext(), null)) {
+                startTime = SystemClock.elapsedRealtime();
                 sendNewsNotification(getContext());
+                syncMetrics.add(SyncMetrics.PHASE_NOTIFICATION,
+                        SystemClock.elapsedRealtime() - startTime, 0);
             }
-        } catch(IOException e) {
-            Log.e(LOG_TAG, getContext().getString(R.string.log_on_perform_sync_io_error)
-                    + e.getLocalizedMessage());
-        } catch(JSONException e) {
-            Log.e(LOG_TAG, getContext().getString(R.string.log_on_perform_sync_json_error)
-                    + e.getLocalizedMessage());
-        } finally {
-            // Close url connection, if open.
-            if(httpURLConnection != null) {
-                httpURLConnection.disconnect();
-            }
+        }
 
-            // Close the buffered reader, if open.
-            if(bufferedReader != null) {
-                try {
-                    bufferedReader.close();
-                } catch(final IOException e) {
-                    Log.e(LOG_TAG, getContext().getString(R.string.log_on_perform_sync_io_error)
-                            + e.getLocalizedMessage());
-                }
+        // Warm the image cache for the first screen of the current category, only when new
+        // stories came in, so syncs finding nothing changed don't wake the radio again.
+        String currentSection = getSectionForCategory(getContext(),
+                Utility.getNewsCategoryPreference(getContext(), null));
+        if(isDataUpdated && !hasFailed && currentSection != null
+                && Utility.getPrefetchImagesPreference(getContext(), null)
+                && ImagePrefetcher.isOnUnmeteredNetwork(getContext())) {
+            long startTime = SystemClock.elapsedRealtime();
+            try {
+                int prefetchCount = new ImagePrefetcher(getContext()).prefetch(currentSection);
+                Log.d(LOG_TAG, getContext().getString(R.string.log_images_prefetched)
+                        + prefetchCount);
+            } catch(InterruptedException e) {
+                // Sync was cancelled, the prefetch is best effort anyway.
+                Thread.currentThread().interrupt();
             }
+            syncMetrics.add(SyncMetrics.PHASE_PREFETCH,
+                    SystemClock.elapsedRealtime() - startTime, 0);
         }
-        return;
+
+        // Record where the time of this run went.
+        syncMetrics.save(getContext());
     }
 
     /**
-     * Parses the input string in JSON format, extracts the news data and then writes it
-     * into the content provider. Throws a JSON exception in case of any error.
+     * Holds the outcome of fetching a single section.
      */
-    private void getNewsDataFromJson(String newsJsonStr) throws JSONException {
-        try {
-            // Create the JSON object from the input string.
-            JSONObject newsJson = new JSONObject(newsJsonStr);
-
-            // Get the JSON array containing the results.
-            JSONArray resultsJsonArray = null;
-            if(newsJson.has(NYT_RESULTS)
-                    && newsJson.get(NYT_RESULTS) instanceof JSONArray
-                    && newsJson.getJSONArray(NYT_RESULTS) != null
-                    && newsJson.getJSONArray(NYT_RESULTS).length() != 0) {
-                resultsJsonArray = newsJson.getJSONArray(NYT_RESULTS);
-            } else {
-                // Query did not return any results, log message and return.
-                Log.d(LOG_TAG, getContext().getString(R.string.msg_err_zero_results));
-                return;
-            }
+    private static final class SectionResult {
+        // Section the result is for.
+        String section;
 
-            // Get length of the results array.
-            int resultsLength = resultsJsonArray.length();
+        // Whether the server reported the section as unchanged.
+        boolean isNotModified;
 
-            // Create a vector of content values to hold the news stories.
-            Vector<ContentValues> vectorContentValues = new Vector<ContentValues>(resultsLength);
+        // News stories parsed from the response.
+        Vector<ContentValues> vectorContentValues;
 
-            // Traverse the json array extracting each news story.
-            for(int i = 0; i < resultsLength; i++) {
-                // Get the JSON object corresponding to a news story.
-                JSONObject jsonNewsStory = resultsJsonArray.getJSONObject(i);
+        // Validators of the response.
+        String eTag;
+        String lastModified;
 
-                // Extract the headline from the JSON object.
-                String headline = null;
+        // Number of rows the merge of the section inserts, updates and deletes.
+        int insertCount;
+        int updateCount;
+        int deleteCount;
+    }
 
-                // Check if headline exists and is a non-empty string.
-                if(jsonNewsStory.has(NYT_TITLE)
-                        && jsonNewsStory.get(NYT_TITLE) instanceof String
-                        && !jsonNewsStory.getString(NYT_TITLE).isEmpty()) {
-                    headline = jsonNewsStory.getString(NYT_TITLE);
-                } else {
-                    // No headline found, skip this story.
-                    continue;
-                }
+    /**
+     * Signals that the server rejected the API key or the request quota was exceeded.
+     */
+    private static final class QuotaException extends IOException {
+        // Delay requested by the server before retrying, in seconds, or zero.
+        final long retryAfterSeconds;
 
-                // Extract the thumbnail and photo from the JSON object.
-                JSONArray multimediaJsonArray = null;
-                String uriThumbnail = null;
-                byte[] thumbnail = null;    // Stores a blob when marked as favorite, null for now.
-                String captionThumbnail = null;
-                String copyrightThumbnail = null;
-                String uriPhoto = null;
-                byte[] photo = null;    // Stores a blob when marked as favorite, null for now.
-                String captionPhoto = null;
-                String copyrightPhoto = null;
-
-                // Check if multimedia exists and is in json array format.
-                if(jsonNewsStory.has(NYT_MULTIMEDIA)
-                        && jsonNewsStory.get(NYT_MULTIMEDIA) instanceof JSONArray
-                        && jsonNewsStory.getJSONArray(NYT_MULTIMEDIA) != null) {
-                    // Get the multimedia json array.
-                    multimediaJsonArray = jsonNewsStory.getJSONArray(NYT_MULTIMEDIA);
-
-                    // Traverse the multimedia json array.
-                    for(int j = 0; j < multimediaJsonArray.length(); j++) {
-                        // Get the JSON object corresponding to an image.
-                        JSONObject jsonImage = multimediaJsonArray.getJSONObject(j);
-
-                        // Get the image format.
-                        String format = null;
-                        if(jsonImage.has(NYT_FORMAT)
-                                && jsonImage.get(NYT_FORMAT) instanceof String
-                                && jsonImage.getString(NYT_FORMAT) != null
-                                && !jsonImage.getString(NYT_FORMAT).isEmpty()) {
-                            // Get the image format.
-                            format = jsonImage.getString(NYT_FORMAT);
-                        } else {
-                            // Image format not found, skip this image.
-                            continue;
-                        }
-
-                        // Extract the image only if it's thumbnail or normal format.
-                        if(format.equals(NYT_FORMAT_STANDARD_THUMBNAIL)) {
-                            // Extract thumbnail uri.
-                            if(jsonImage.has(NYT_URL)
-                                    && jsonImage.get(NYT_URL) instanceof String
-                                    && jsonImage.getString(NYT_URL) != null
-                                    && !jsonImage.getString(NYT_URL).isEmpty()) {
-                                uriThumbnail = jsonImage.getString(NYT_URL);
-                            } else {
-                                // Thumbnail uri not found, skip this image.
-                                continue;
-                            }
-
-                            // Extract thumbnail caption.
-                            if(jsonImage.has(NYT_CAPTION)
-                                    && jsonImage.get(NYT_CAPTION) instanceof String
-                                    && jsonImage.getString(NYT_CAPTION) != null
-                                    && !jsonImage.getString(NYT_CAPTION).isEmpty()) {
-                                captionThumbnail = jsonImage.getString(NYT_CAPTION);
-                            }
-
-                            // Extract thumbnail copyright.
-                            if(jsonImage.has(NYT_COPYRIGHT)
-                                    && jsonImage.get(NYT_COPYRIGHT) instanceof String
-                                    && jsonImage.getString(NYT_COPYRIGHT) != null
-                                    && !jsonImage.getString(NYT_COPYRIGHT).isEmpty()) {
-                                copyrightThumbnail = jsonImage.getString(NYT_COPYRIGHT);
-                            }
-                        } else if(format.equals(NYT_FORMAT_NORMAL)) {
-                            // Extract photo uri.
-                            if(jsonImage.has(NYT_URL)
-                                    && jsonImage.get(NYT_URL) instanceof String
-                                    && jsonImage.getString(NYT_URL) != null
-                                    && !jsonImage.getString(NYT_URL).isEmpty()) {
-                                uriPhoto = jsonImage.getString(NYT_URL);
-                            } else {
-                                // Photo uri not found, skip this image.
-                                continue;
-                            }
-
-                            // Extract photo caption.
-                            if(jsonImage.has(NYT_CAPTION)
-                                    && jsonImage.get(NYT_CAPTION) instanceof String
-                                    && jsonImage.getString(NYT_CAPTION) != null
-                                    && !jsonImage.getString(NYT_CAPTION).isEmpty()) {
-                                captionPhoto = jsonImage.getString(NYT_CAPTION);
-                            }
-
-                            // Extract photo copyright.
-                            if(jsonImage.has(NYT_COPYRIGHT)
-                                    && jsonImage.get(NYT_COPYRIGHT) instanceof String
-                                    && jsonImage.getString(NYT_COPYRIGHT) != null
-                                    && !jsonImage.getString(NYT_COPYRIGHT).isEmpty()) {
-                                copyrightPhoto = jsonImage.getString(NYT_COPYRIGHT);
-                            }
-                        }
-                    }
-                } else {
-                    // No thumbnail or photo found, skip this story.
-                    continue;
-                }
+        QuotaException(String message, long retryAfterSeconds) {
+            super(message);
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+    }
 
-                // Extract the summary from the JSON object.
-                String summary = null;
-                if(jsonNewsStory.has(NYT_ABSTRACT)
-                        && jsonNewsStory.get(NYT_ABSTRACT) instanceof String
-                        && !jsonNewsStory.getString(NYT_ABSTRACT).isEmpty()) {
-                    summary = jsonNewsStory.getString(NYT_ABSTRACT);
-                }
+    /**
+     * Queries the NYT server for the stories in the section and parses the response.
+     * Runs on a worker thread, so it must not write into the content provider.
+     */
+    private SectionResult fetchSection(String section, SyncMetrics syncMetrics)
+            throws IOException {
+        // Build the uri for querying data from NYT api.
+        Uri uri = Uri.parse(NYT_BASE_URL + section + NYT_RESPONSE_FORMAT)
+                .buildUpon()
+                .appendQueryParameter(NYT_API_KEY_PARAM, NYT_API_KEY)
+                .build();
+        Log.d(LOG_TAG, uri.toString());
+
+        // Create the request to NYT server, asking the client for its timings.
+        RequestTimings timings = new RequestTimings();
+        Request.Builder requestBuilder = new Request.Builder()
+                .url(uri.toString())
+                .tag(timings);
+
+        // Send the validators of the last response, but only if its stories are still
+        // in the database. Otherwise an unchanged section would leave the list empty.
+        if(hasNewsData(section)) {
+            String eTag = mSyncStateStore.getETag(section);
+            if(eTag != null) {
+                requestBuilder.header(HEADER_IF_NONE_MATCH, eTag);
+            }
+            String lastModified = mSyncStateStore.getLastModified(section);
+            if(lastModified != null) {
+                requestBuilder.header(HEADER_IF_MODIFIED_SINCE, lastModified);
+            }
+        }
 
-                // Extract the uri for the story from the JSON object.
-                String uriStory = null;
-                if(jsonNewsStory.has(NYT_URL)
-                        && jsonNewsStory.get(NYT_URL) instanceof String
-                        && !jsonNewsStory.getString(NYT_URL).isEmpty()) {
-                    uriStory = jsonNewsStory.getString(NYT_URL);
-                }
+        // Execute the request on the shared client.
+        Response response = NewsHttpClient.getInstance(getContext()).getClient()
+                .newCall(requestBuilder.build())
+                .execute();
+        syncMetrics.add(SyncMetrics.PHASE_CONNECT, timings.getConnectMillis(), 0);
+        syncMetrics.add(SyncMetrics.PHASE_FIRST_BYTE, timings.getFirstByteMillis(), 0);
 
-                // Extract the author from the JSON object.
-                String author = null;
-                if(jsonNewsStory.has(NYT_BYLINE)
-                        && jsonNewsStory.get(NYT_BYLINE) instanceof String
-                        && !jsonNewsStory.getString(NYT_BYLINE).isEmpty()) {
-                    author = jsonNewsStory.getString(NYT_BYLINE);
-                }
+        try {
+            SectionResult sectionResult = new SectionResult();
+            sectionResult.section = section;
 
-                // Extract the date from the JSON object.
-                String date = null;
-                if(jsonNewsStory.has(NYT_PUBLISHED_DATE)
-                        && jsonNewsStory.get(NYT_PUBLISHED_DATE) instanceof String
-                        && !jsonNewsStory.getString(NYT_PUBLISHED_DATE).isEmpty()) {
-                    date = jsonNewsStory.getString(NYT_PUBLISHED_DATE);
-                }
+            // Check if the section has changed since the last sync.
+            if(response.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                sectionResult.isNotModified = true;
+                return sectionResult;
+            }
 
-                // Marked as favorite, false for now.
-                int isFavorite = 0;
-
-                // Create content values for this news story.
-                ContentValues newsValues = new ContentValues();
-
-                newsValues.put(NewsContract.NewsEntry.COLUMN_HEADLINE, headline);
-                newsValues.put(NewsContract.NewsEntry.COLUMN_SUMMARY, summary);
-                newsValues.put(NewsContract.NewsEntry.COLUMN_URI_STORY, uriStory);
-                newsValues.put(NewsContract.NewsEntry.COLUMN_AUTHOR, author);
-                newsValues.put(NewsContract.NewsEntry.COLUMN_DATE, date);
-                newsValues.put(NewsContract.NewsEntry.COLUMN_URI_THUMBNAIL, uriThumbnail);
-                newsValues.put(NewsContract.NewsEntry.COLUMN_THUMBNAIL, thumbnail);
-                newsValues.put(NewsContract.NewsEntry.COLUMN_CAPTION_THUMBNAIL, captionThumbnail);
-                newsValues.put(NewsContract.NewsEntry.COLUMN_COPYRIGHT_THUMBNAIL, copyrightThumbnail);
-                newsValues.put(NewsContract.NewsEntry.COLUMN_URI_PHOTO, uriPhoto);
-                newsValues.put(NewsContract.NewsEntry.COLUMN_PHOTO, photo);
-                newsValues.put(NewsContract.NewsEntry.COLUMN_CAPTION_PHOTO, captionPhoto);
-                newsValues.put(NewsContract.NewsEntry.COLUMN_COPYRIGHT_PHOTO, copyrightPhoto);
-                newsValues.put(NewsContract.NewsEntry.COLUMN_IS_FAVORITE, isFavorite);
-
-                // Add the content values into the vector.
-                vectorContentValues.add(newsValues);
+            // Check if the API key was rejected or the quota exceeded.
+            if(response.code() == HttpURLConnection.HTTP_UNAUTHORIZED
+                    || response.code() == HttpURLConnection.HTTP_FORBIDDEN
+                    || response.code() == HTTP_TOO_MANY_REQUESTS) {
+                throw new QuotaException(getContext().getString(R.string.err_http_status)
+                        + response.code(), parseRetryAfter(response.header(HEADER_RETRY_AFTER)));
             }
 
-            // Check rows inserted and deleted.
-            int rowsInserted = 0;
-            int rowsDeleted = 0;
-
-            // Add the news stories into the database.
-            if(vectorContentValues.size() > 0) {
-                // Copy the vector values into content values array.
-                ContentValues[] arrayContentValues = new ContentValues[vectorContentValues.size()];
-                vectorContentValues.toArray(arrayContentValues);
-
-                // Delete the older data before inserting, except those marked as favorite.
-                rowsDeleted = getContext().getContentResolver()
-                        .delete(NewsContract.NewsEntry.CONTENT_URI,
-                                NewsContract.NewsEntry.COLUMN_IS_FAVORITE + "=?",
-                                new String[]{Integer.toString(0)});
-
-                // Bulk insert into news table.
-                rowsInserted = getContext().getContentResolver()
-                        .bulkInsert(NewsContract.NewsEntry.CONTENT_URI, arrayContentValues);
+            // Check if the query was successful.
+            if(!response.isSuccessful()) {
+                throw new IOException(getContext().getString(R.string.err_http_status)
+                        + response.code());
             }
 
-            Log.d(LOG_TAG, getContext().getString(R.string.log_sync_completed));
-            Log.d(LOG_TAG, getContext().getString(R.string.log_rows_deleted) + rowsDeleted);
-            Log.d(LOG_TAG, getContext().getString(R.string.log_rows_inserted) + rowsInserted);
+            // Parse the news stories straight off the response input stream. The time spent
+            // waiting on the stream is the download, the rest is the parse. The bytes of the
+            // download are those read off the network, still compressed.
+            long startTime = SystemClock.elapsedRealtime();
+            SyncMetrics.MeteredInputStream inputStream =
+                    new SyncMetrics.MeteredInputStream(response.body().byteStream());
+            sectionResult.vectorContentValues = NewsJsonParser.parse(inputStream);
+            long downloadMillis = inputStream.getReadMillis();
+            syncMetrics.add(SyncMetrics.PHASE_DOWNLOAD, downloadMillis,
+                    timings.getResponseBytes());
+            syncMetrics.add(SyncMetrics.PHASE_PARSE,
+                    SystemClock.elapsedRealtime() - startTime - downloadMillis, 0);
+
+            // Normalize the stories for storage, before the merge matches them by their uri.
+            startTime = SystemClock.elapsedRealtime();
+            NewsNormalizer newsNormalizer = new NewsNormalizer(getContext());
+            for(ContentValues newsValues : sectionResult.vectorContentValues) {
+                newsNormalizer.normalize(newsValues);
+            }
+            syncMetrics.add(SyncMetrics.PHASE_NORMALIZE,
+                    SystemClock.elapsedRealtime() - startTime, 0);
+            sectionResult.eTag = response.header(HEADER_ETAG);
+            sectionResult.lastModified = response.header(HEADER_LAST_MODIFIED);
 
-        } catch(JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
+            return sectionResult;
+        } finally {
+            // Close the response body, releasing the connection back to the pool.
+            response.body().close();
+        }
+    }
+
+    /**
+     * Returns the retry delay of a Retry-After header given in seconds, or zero if the
+     * header is missing or holds a date.
+     */
+    private static long parseRetryAfter(String retryAfter) {
+        if(retryAfter == null) {
+            return 0;
+        }
+
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()));
+        } catch(NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns whether the database holds any news stories for the section
+     * other than favorites.
+     */
+    private boolean hasNewsData(String section) {
+        Cursor cursor = getContext().getContentResolver().query(
+                NewsContract.NewsEntry.buildSectionUri(section),
+                new String[]{NewsContract.NewsEntry._ID},
+                null,
+                null,
+                null);
+
+        if(cursor == null) {
+            return false;
         }
+
+        try {
+            return cursor.getCount() > 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Merges the news stories parsed from the query response into the stories stored for
+     * the section, leaving those marked as favorite alone. Adds the operations writing only
+     * the new, changed and removed stories to the batch, and notes their counts in the result.
+     */
+    private void mergeNewsData(ContentProviderClient provider, SectionResult sectionResult,
+                               ArrayList<ContentProviderOperation> operations,
+                               SyncMetrics syncMetrics) throws RemoteException {
+        long startTime = SystemClock.elapsedRealtime();
+        String section = sectionResult.section;
+
+        // Query the stories currently stored for the section.
+        Cursor storedCursor = provider.query(
+                NewsContract.NewsEntry.buildSectionUri(section),
+                NewsMerger.MERGE_PROJECTION,
+                null,
+                null,
+                null);
+
+        // Compute the operations that bring the stored stories up to date.
+        NewsMerger newsMerger = new NewsMerger();
+        if(storedCursor != null) {
+            try {
+                operations.addAll(newsMerger.merge(storedCursor, section,
+                        sectionResult.vectorContentValues));
+            } finally {
+                storedCursor.close();
+            }
+        } else {
+            operations.addAll(newsMerger.merge(new MatrixCursor(NewsMerger.MERGE_PROJECTION),
+                    section, sectionResult.vectorContentValues));
+        }
+        sectionResult.insertCount = newsMerger.getInsertCount();
+        sectionResult.updateCount = newsMerger.getUpdateCount();
+        sectionResult.deleteCount = newsMerger.getDeleteCount();
+
+        Log.d(LOG_TAG, getContext().getString(R.string.log_sync_completed) + section);
+        Log.d(LOG_TAG, getContext().getString(R.string.log_rows_deleted) + newsMerger.getDeleteCount());
+        Log.d(LOG_TAG, getContext().getString(R.string.log_rows_updated) + newsMerger.getUpdateCount());
+        Log.d(LOG_TAG, getContext().getString(R.string.log_rows_inserted) + newsMerger.getInsertCount());
+
+        syncMetrics.add(SyncMetrics.PHASE_MERGE, SystemClock.elapsedRealtime() - startTime, 0);
     }
 
     private static void onAccountCreated(Account newAccount, Context context) {
@@ -513,7 +675,7 @@ public class NewsSyncAdapter extends AbstractThreadedSyncAdapter {
         ContentResolver.setSyncAutomatically(newAccount, context.getString(R.string.content_authority), true);
 
         // Trigger an immediate sync to get the ball rolling!
-        syncImmediately(context);
+        syncImmediately(context, true);
     }
 
     /**
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 Ravi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ravi.apps.android.newsbytes.sync;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.util.Log;
+
+import com.ravi.apps.android.newsbytes.R;
+
+import java.util.Random;
+
+/**
+ * Decides how long to hold off syncing after failed syncs. Each consecutive failure doubles
+ * the delay, randomized so that devices failing together don't retry together. Repeated
+ * API key or quota errors open a circuit breaker that suspends syncing for hours, since
+ * retrying sooner can't succeed and only adds to the load on the server.
+ */
+public class SyncBackoff {
+
+    // Tag for logging messages.
+    private static final String LOG_TAG = SyncBackoff.class.getSimpleName();
+
+    // Largest exponent applied to the base delay, keeps the shift from overflowing.
+    private static final int MAX_BACKOFF_EXPONENT = 16;
+
+    private static final Random sRandom = new Random();
+
+    private final Context mContext;
+    private final SyncStateStore mSyncStateStore;
+
+    public SyncBackoff(Context context, SyncStateStore syncStateStore) {
+        mContext = context;
+        mSyncStateStore = syncStateStore;
+    }
+
+    /**
+     * Returns whether syncing is suspended after repeated API key or quota errors.
+     */
+    public boolean isCircuitOpen() {
+        return System.currentTimeMillis() < mSyncStateStore.getCircuitOpenUntil();
+    }
+
+    /**
+     * Returns the time the circuit breaker closes again, in milliseconds, or zero if it was
+     * never opened.
+     */
+    public long getCircuitOpenUntil() {
+        return mSyncStateStore.getCircuitOpenUntil();
+    }
+
+    /**
+     * Records a successful sync, clearing the failure history.
+     */
+    public void recordSuccess() {
+        if(mSyncStateStore.getFailureCount() > 0 || mSyncStateStore.getQuotaFailureCount() > 0) {
+            mSyncStateStore.saveFailureState(0, 0, 0);
+        }
+    }
+
+    /**
+     * Records a failed sync and returns the number of seconds to wait before the next one.
+     * The wait is at least the retry delay requested by the server, if any.
+     */
+    public long recordFailure(boolean isQuotaError, long retryAfterSeconds) {
+        Resources resources = mContext.getResources();
+        int failureCount = mSyncStateStore.getFailureCount() + 1;
+        int quotaFailureCount = isQuotaError ? mSyncStateStore.getQuotaFailureCount() + 1 : 0;
+        long circuitOpenUntil = 0;
+
+        // Double the delay with every consecutive failure, up to the maximum.
+        long baseDelay = resources.getInteger(R.integer.sync_backoff_base_seconds);
+        long maxDelay = resources.getInteger(R.integer.sync_backoff_max_minutes) * 60L;
+        long delay = Math.min(maxDelay,
+                baseDelay << Math.min(failureCount - 1, MAX_BACKOFF_EXPONENT));
+
+        // Pick a random delay in the upper half, spreading out the retries.
+        delay = delay / 2 + (long) (sRandom.nextDouble() * (delay / 2));
+        delay = Math.max(delay, retryAfterSeconds);
+
+        // Open the circuit after repeated API key or quota errors.
+        if(quotaFailureCount >= resources.getInteger(R.integer.sync_circuit_failure_threshold)) {
+            long openDuration = resources.getInteger(R.integer.sync_circuit_open_hours) * 60L * 60L;
+            delay = Math.max(delay, openDuration);
+            circuitOpenUntil = System.currentTimeMillis() + delay * 1000L;
+            Log.w(LOG_TAG, mContext.getString(R.string.log_sync_circuit_open) + delay);
+        }
+
+        mSyncStateStore.saveFailureState(failureCount, quotaFailureCount, circuitOpenUntil);
+        Log.d(LOG_TAG, mContext.getString(R.string.log_sync_backoff) + delay);
+
+        return delay;
+    }
+}
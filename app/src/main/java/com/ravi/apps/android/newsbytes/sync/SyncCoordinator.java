@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 Ravi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ravi.apps.android.newsbytes.sync;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.ravi.apps.android.newsbytes.R;
+
+/**
+ * Funnels the immediate sync requests made throughout the app into a single sync. A request
+ * is dropped if a sync is already pending, and unless forced, if a sync is running, if one
+ * was requested moments ago or if the stored news data is still fresh.
+ */
+public class SyncCoordinator {
+
+    // Tag for logging messages.
+    private static final String LOG_TAG = SyncCoordinator.class.getSimpleName();
+
+    // Time the last sync request was passed on, in milliseconds since boot.
+    private static long sLastRequestTime;
+
+    private SyncCoordinator() {
+    }
+
+    /**
+     * Requests an immediate sync, unless it would be redundant. A forced request is only
+     * dropped if a sync is already pending, since the pending sync reads the current
+     * preferences when it starts. Returns whether the sync was requested.
+     */
+    public static boolean requestSync(Context context, boolean force) {
+        // Get the account outside the lock, creating it may request a sync itself.
+        Account account = NewsSyncAdapter.getSyncAccount(context);
+        if(account == null) {
+            return false;
+        }
+
+        synchronized(SyncCoordinator.class) {
+            return requestSync(context, account, force);
+        }
+    }
+
+    private static boolean requestSync(Context context, Account account, boolean force) {
+        String authority = context.getString(R.string.content_authority);
+
+        // A pending sync will pick up whatever this request is for.
+        if(ContentResolver.isSyncPending(account, authority)) {
+            Log.d(LOG_TAG, context.getString(R.string.log_sync_skipped_pending));
+            return false;
+        }
+
+        if(!force) {
+            // A running sync or one requested moments ago already fetches the latest data.
+            long now = SystemClock.elapsedRealtime();
+            long debounceInterval = context.getResources()
+                    .getInteger(R.integer.sync_debounce_seconds) * 1000L;
+            if(ContentResolver.isSyncActive(account, authority)
+                    || (sLastRequestTime > 0 && now - sLastRequestTime < debounceInterval)) {
+                Log.d(LOG_TAG, context.getString(R.string.log_sync_skipped_recent));
+                return false;
+            }
+
+            // The news data synced a short while ago is still good enough. The sections synced
+            // then are the ones this request is for, changing them forces the request.
+            long lastSyncTime = new SyncStateStore(context).getLastSyncTime();
+            long freshnessInterval = context.getResources()
+                    .getInteger(R.integer.sync_freshness_minutes) * 60L * 1000L;
+            if(lastSyncTime > 0 && System.currentTimeMillis() - lastSyncTime < freshnessInterval) {
+                Log.d(LOG_TAG, context.getString(R.string.log_sync_skipped_fresh));
+                return false;
+            }
+        }
+
+        Log.d(LOG_TAG, context.getString(R.string.log_sync_immediately));
+
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        ContentResolver.requestSync(account, authority, bundle);
+
+        sLastRequestTime = SystemClock.elapsedRealtime();
+        return true;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 Ravi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ravi.apps.android.newsbytes.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.ravi.apps.android.newsbytes.data.NewsContract.MetricsEntry;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the time spent in each phase of a sync run and records it in the metrics table.
+ * Sections are fetched in parallel, so the time of a network or parse phase is the sum over
+ * the sections, not the wall clock time.
+ */
+public class SyncMetrics {
+
+    // Sync phases.
+    public static final String PHASE_CONNECT = "connect";
+    public static final String PHASE_FIRST_BYTE = "first_byte";
+    public static final String PHASE_DOWNLOAD = "download";
+    public static final String PHASE_PARSE = "parse";
+    public static final String PHASE_NORMALIZE = "normalize";
+    public static final String PHASE_MERGE = "merge";
+    public static final String PHASE_APPLY_BATCH = "apply_batch";
+    public static final String PHASE_BROADCAST = "broadcast";
+    public static final String PHASE_NOTIFICATION = "notification";
+    public static final String PHASE_PREFETCH = "prefetch";
+    public static final String PHASE_TOTAL = "total";
+
+    // Time the run started, identifies the run in the metrics table.
+    private final long mRunId = System.currentTimeMillis();
+
+    // Time the run started, for measuring the total.
+    private final long mStartTime = SystemClock.elapsedRealtime();
+
+    // Accumulated milliseconds and bytes per phase, in the order the phases were first seen.
+    private final Map<String, long[]> mPhases = new LinkedHashMap<String, long[]>();
+
+    /**
+     * Adds the time spent in the phase, and the bytes transferred, to the run.
+     */
+    public synchronized void add(String phase, long durationMillis, long bytes) {
+        long[] totals = mPhases.get(phase);
+        if(totals == null) {
+            totals = new long[2];
+            mPhases.put(phase, totals);
+        }
+        totals[0] += durationMillis;
+        totals[1] += bytes;
+    }
+
+    /**
+     * Appends the phases of the run, along with its total time, to the metrics table.
+     */
+    public synchronized void save(Context context) {
+        add(PHASE_TOTAL, SystemClock.elapsedRealtime() - mStartTime, 0);
+
+        ContentValues[] values = new ContentValues[mPhases.size()];
+        int i = 0;
+        for(Map.Entry<String, long[]> entry : mPhases.entrySet()) {
+            values[i] = new ContentValues();
+            values[i].put(MetricsEntry.COLUMN_RUN_ID, mRunId);
+            values[i].put(MetricsEntry.COLUMN_PHASE, entry.getKey());
+            values[i].put(MetricsEntry.COLUMN_DURATION_MS, entry.getValue()[0]);
+            values[i].put(MetricsEntry.COLUMN_BYTES, entry.getValue()[1]);
+            i++;
+        }
+
+        context.getContentResolver().bulkInsert(MetricsEntry.CONTENT_URI, values);
+    }
+
+    /**
+     * Input stream measuring the time spent waiting on the stream it wraps. Used to tell the
+     * download apart from the parse of a streamed response.
+     */
+    public static final class MeteredInputStream extends FilterInputStream {
+
+        // Time spent inside the reads of the wrapped stream, in nanoseconds.
+        private long mReadNanos;
+
+        public MeteredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long startTime = System.nanoTime();
+            int value = super.read();
+            mReadNanos += System.nanoTime() - startTime;
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long startTime = System.nanoTime();
+            int bytesRead = super.read(buffer, offset, count);
+            mReadNanos += System.nanoTime() - startTime;
+            return bytesRead;
+        }
+
+        // Returns the time spent reading, in milliseconds.
+        public long getReadMillis() {
+            return mReadNanos / 1000000L;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 Ravi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ravi.apps.android.newsbytes.sync;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.util.Log;
+
+import com.ravi.apps.android.newsbytes.R;
+
+/**
+ * Adapts the periodic sync interval to how often the synced sections actually change and to
+ * whether the user is still opening the app. The interval follows the shortest observed time
+ * between changes of any synced section, stays within the configured bounds, and is stretched
+ * while the user is away.
+ */
+public class SyncScheduler {
+
+    // Tag for logging messages.
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    // Number of syncs per observed change interval.
+    private static final int SYNCS_PER_CHANGE = 2;
+
+    // Relative difference below which the periodic sync is not rescheduled.
+    private static final float RESCHEDULE_THRESHOLD = 0.1f;
+
+    private final Context mContext;
+    private final SyncStateStore mSyncStateStore;
+
+    public SyncScheduler(Context context, SyncStateStore syncStateStore) {
+        mContext = context;
+        mSyncStateStore = syncStateStore;
+    }
+
+    /**
+     * Records that the user opened the app.
+     */
+    public static void recordEngagement(Context context) {
+        new SyncStateStore(context).saveLastEngagementTime(System.currentTimeMillis());
+    }
+
+    /**
+     * Records the outcome of syncing the section, updating its estimated time between changes.
+     */
+    public void recordSectionSynced(String section, boolean hasChanged) {
+        long now = System.currentTimeMillis();
+        long lastChangeTime = mSyncStateStore.getLastChangeTime(section);
+        long changeInterval = mSyncStateStore.getChangeInterval(section);
+
+        if(hasChanged) {
+            // Fold the time since the previous change into the estimate.
+            if(lastChangeTime > 0) {
+                long observedInterval = now - lastChangeTime;
+                changeInterval = changeInterval == 0
+                        ? observedInterval : (changeInterval + observedInterval) / 2;
+            }
+            mSyncStateStore.saveChangeStats(section, now, changeInterval);
+        } else if(lastChangeTime > 0 && now - lastChangeTime > changeInterval) {
+            // Section has been stable for longer than usual, stretch the estimate.
+            mSyncStateStore.saveChangeStats(section, lastChangeTime, now - lastChangeTime);
+        }
+    }
+
+    /**
+     * Reschedules the periodic sync if the interval suited to the sections differs
+     * noticeably from the one currently scheduled.
+     */
+    public void updatePeriodicSync(String[] sections) {
+        int syncInterval = computeSyncInterval(sections);
+        int scheduledInterval = mSyncStateStore.getSyncInterval(NewsSyncAdapter.SYNC_INTERVAL);
+
+        if(Math.abs(syncInterval - scheduledInterval) <= scheduledInterval * RESCHEDULE_THRESHOLD) {
+            return;
+        }
+
+        Log.d(LOG_TAG, mContext.getString(R.string.log_sync_interval_changed) + syncInterval);
+        NewsSyncAdapter.configurePeriodicSync(mContext, syncInterval, syncInterval / 3);
+        mSyncStateStore.saveSyncInterval(syncInterval);
+    }
+
+    /**
+     * Returns the periodic sync interval suited to the sections, in seconds.
+     */
+    private int computeSyncInterval(String[] sections) {
+        Resources resources = mContext.getResources();
+        long minInterval = resources.getInteger(R.integer.sync_interval_min_minutes) * 60L;
+        long maxInterval = resources.getInteger(R.integer.sync_interval_max_minutes) * 60L;
+
+        // Find the section that changes most often.
+        long shortestChangeInterval = 0;
+        for(String section : sections) {
+            long changeInterval = mSyncStateStore.getChangeInterval(section);
+            if(changeInterval > 0
+                    && (shortestChangeInterval == 0 || changeInterval < shortestChangeInterval)) {
+                shortestChangeInterval = changeInterval;
+            }
+        }
+
+        // Sync a few times per change, or at the default interval until changes are observed.
+        long syncInterval = shortestChangeInterval == 0
+                ? NewsSyncAdapter.SYNC_INTERVAL
+                : shortestChangeInterval / 1000 / SYNCS_PER_CHANGE;
+
+        // Back off while the user hasn't opened the app for a while.
+        long idleTime = System.currentTimeMillis() - mSyncStateStore.getLastEngagementTime();
+        if(idleTime > resources.getInteger(R.integer.sync_idle_threshold_hours) * 60L * 60L * 1000L) {
+            syncInterval *= resources.getInteger(R.integer.sync_idle_backoff_factor);
+        }
+
+        return (int) Math.max(minInterval, Math.min(maxInterval, syncInterval));
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 Ravi
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ravi.apps.android.newsbytes.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Persists the state kept by the sync adapter between syncs. It is stored in a private
+ * shared preferences file rather than the default one, so that writing it does not
+ * notify the listeners of the user preferences.
+ */
+public class SyncStateStore {
+
+    // Name of the shared preferences file holding the sync state.
+    private static final String SYNC_STATE_PREFS = "sync_state";
+
+    // Key prefixes for the per section response validators.
+    private static final String KEY_ETAG = "etag_";
+    private static final String KEY_LAST_MODIFIED = "last_modified_";
+
+    // Key prefixes for the per section change statistics.
+    private static final String KEY_LAST_CHANGE_TIME = "last_change_time_";
+    private static final String KEY_CHANGE_INTERVAL = "change_interval_";
+
+    // Keys for the sync schedule and user engagement.
+    private static final String KEY_LAST_SYNC_TIME = "last_sync_time";
+    private static final String KEY_SYNC_INTERVAL = "sync_interval";
+    private static final String KEY_LAST_ENGAGEMENT_TIME = "last_engagement_time";
+
+    // Keys for the failure history.
+    private static final String KEY_FAILURE_COUNT = "failure_count";
+    private static final String KEY_QUOTA_FAILURE_COUNT = "quota_failure_count";
+    private static final String KEY_CIRCUIT_OPEN_UNTIL = "circuit_open_until";
+
+    // Shared preferences holding the sync state.
+    private final SharedPreferences mSharedPreferences;
+
+    public SyncStateStore(Context context) {
+        mSharedPreferences = context.getApplicationContext()
+                .getSharedPreferences(SYNC_STATE_PREFS, Context.MODE_PRIVATE);
+    }
+
+    // Returns the entity tag of the last response for the section, or null.
+    public String getETag(String section) {
+        return mSharedPreferences.getString(KEY_ETAG + section, null);
+    }
+
+    // Returns the last modified date of the last response for the section, or null.
+    public String getLastModified(String section) {
+        return mSharedPreferences.getString(KEY_LAST_MODIFIED + section, null);
+    }
+
+    /**
+     * Saves the validators of the response for the section. Null values remove the
+     * corresponding validator.
+     */
+    public void saveValidators(String section, String eTag, String lastModified) {
+        mSharedPreferences.edit()
+                .putString(KEY_ETAG + section, eTag)
+                .putString(KEY_LAST_MODIFIED + section, lastModified)
+                .apply();
+    }
+
+    // Returns the time the section last changed, in milliseconds, or zero if unknown.
+    public long getLastChangeTime(String section) {
+        return mSharedPreferences.getLong(KEY_LAST_CHANGE_TIME + section, 0);
+    }
+
+    // Returns the estimated time between changes of the section, in milliseconds,
+    // or zero if unknown.
+    public long getChangeInterval(String section) {
+        return mSharedPreferences.getLong(KEY_CHANGE_INTERVAL + section, 0);
+    }
+
+    /**
+     * Saves the time the section last changed and the estimated time between its changes.
+     */
+    public void saveChangeStats(String section, long lastChangeTime, long changeInterval) {
+        mSharedPreferences.edit()
+                .putLong(KEY_LAST_CHANGE_TIME + section, lastChangeTime)
+                .putLong(KEY_CHANGE_INTERVAL + section, changeInterval)
+                .apply();
+    }
+
+    // Returns the time of the last sync that fetched every section it was asked for, in
+    // milliseconds, or zero if unknown. That's every section if all the categories are
+    // synced, else the section of the current category.
+    public long getLastSyncTime() {
+        return mSharedPreferences.getLong(KEY_LAST_SYNC_TIME, 0);
+    }
+
+    // Saves the time of the last sync that fetched every section it was asked for, in
+    // milliseconds.
+    public void saveLastSyncTime(long lastSyncTime) {
+        mSharedPreferences.edit().putLong(KEY_LAST_SYNC_TIME, lastSyncTime).apply();
+    }
+
+    // Returns the interval of the scheduled periodic sync, in seconds.
+    public int getSyncInterval(int defaultInterval) {
+        return mSharedPreferences.getInt(KEY_SYNC_INTERVAL, defaultInterval);
+    }
+
+    // Saves the interval of the scheduled periodic sync, in seconds.
+    public void saveSyncInterval(int syncInterval) {
+        mSharedPreferences.edit().putInt(KEY_SYNC_INTERVAL, syncInterval).apply();
+    }
+
+    // Returns the number of consecutive failed syncs.
+    public int getFailureCount() {
+        return mSharedPreferences.getInt(KEY_FAILURE_COUNT, 0);
+    }
+
+    // Returns the number of consecutive syncs failed by API key or quota errors.
+    public int getQuotaFailureCount() {
+        return mSharedPreferences.getInt(KEY_QUOTA_FAILURE_COUNT, 0);
+    }
+
+    // Returns the time until which syncing is suspended, in milliseconds, or zero.
+    public long getCircuitOpenUntil() {
+        return mSharedPreferences.getLong(KEY_CIRCUIT_OPEN_UNTIL, 0);
+    }
+
+    /**
+     * Saves the failure history - the consecutive failure counts and the time until which
+     * syncing is suspended.
+     */
+    public void saveFailureState(int failureCount, int quotaFailureCount, long circuitOpenUntil) {
+        mSharedPreferences.edit()
+                .putInt(KEY_FAILURE_COUNT, failureCount)
+                .putInt(KEY_QUOTA_FAILURE_COUNT, quotaFailureCount)
+                .putLong(KEY_CIRCUIT_OPEN_UNTIL, circuitOpenUntil)
+                .apply();
+    }
+
+    // Returns the time the user last opened the app, in milliseconds, or zero if unknown.
+    public long getLastEngagementTime() {
+        return mSharedPreferences.getLong(KEY_LAST_ENGAGEMENT_TIME, 0);
+    }
+
+    // Saves the time the user last opened the app, in milliseconds.
+    public void saveLastEngagementTime(long lastEngagementTime) {
+        mSharedPreferences.edit().putLong(KEY_LAST_ENGAGEMENT_TIME, lastEngagementTime).apply();
+    }
+}
@@ -101,7 +101,7 @@ public class NewsWidgetProvider extends AppWidgetProvider {
         if(AppWidgetManager.ACTION_APPWIDGET_ENABLED.equals(action)) {
             // Initialize the sync adapter and trigger an immediate sync.
             NewsSyncAdapter.initializeSyncAdapter(context);
-            NewsSyncAdapter.syncImmediately(context);
+            NewsSyncAdapter.syncImmediately(context, false);
         }
 
         // If the underlying data has been updated, notify the widgets to refresh their views
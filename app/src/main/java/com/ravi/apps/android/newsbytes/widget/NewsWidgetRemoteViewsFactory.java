@@ -19,6 +19,7 @@ package com.ravi.apps.android.newsbytes.widget;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.Binder;
 import android.util.Log;
 import android.widget.AdapterView;
@@ -29,6 +30,7 @@ import com.ravi.apps.android.newsbytes.HeadlinesFragment;
 import com.ravi.apps.android.newsbytes.R;
 import com.ravi.apps.android.newsbytes.Utility;
 import com.ravi.apps.android.newsbytes.data.NewsContract;
+import com.ravi.apps.android.newsbytes.sync.NewsSyncAdapter;
 
 /**
  * Remote adapter that binds to the list view in the news headlines collection widget.
@@ -156,30 +158,31 @@ public class NewsWidgetRemoteViewsFactory implements RemoteViewsService.RemoteVi
         // Clear the calling identity (app widget host).
         final long callingIdentityToken = Binder.clearCallingIdentity();
 
-        // Sort order for the query.
-        String sortOrder = NewsContract.NewsEntry.COLUMN_DATE +
-                mContext.getString(R.string.descending_sort_order);
+        // Sort order for the query, the same as the pages of the headlines list so a widget
+        // item position points at the same story there.
+        String sortOrder = NewsContract.NewsEntry.COLUMN_DATE_MILLIS +
+                mContext.getString(R.string.descending_sort_order) + ", " +
+                NewsContract.NewsEntry._ID + mContext.getString(R.string.descending_sort_order);
 
-        // Selection criteria and arguments.
-        final String selection = NewsContract.NewsEntry.COLUMN_IS_FAVORITE + "=?";
-        String[] selectionArgs;
-
-        // Set selection based on whether news category is favorite.
-        if(Utility.getNewsCategoryPreference(mContext, null)
+        // Set the list uri based on whether news category is favorite.
+        Uri listUri;
+        String newsCategoryPreference = Utility.getNewsCategoryPreference(mContext, null);
+        if(newsCategoryPreference
                 .equals(mContext.getResources().getString(R.string.pref_news_category_favorites))) {
             // Only get the favorite news stories.
-            selectionArgs = new String[]{Integer.toString(1)};
+            listUri = NewsContract.NewsEntry.FAVORITES_URI;
         } else {
-            // Get the news stories other than favorites.
-            selectionArgs = new String[]{Integer.toString(0)};
+            // Get the news stories of the category's section other than favorites.
+            listUri = NewsContract.NewsEntry.buildSectionUri(
+                    NewsSyncAdapter.getSectionForCategory(mContext, newsCategoryPreference));
         }
 
         // Query the content provider.
         mCursor = mContext.getContentResolver().query(
-                NewsContract.NewsEntry.CONTENT_URI,
+                listUri,
                 NEWS_PROJECTION,
-                selection,
-                selectionArgs,
+                null,
+                null,
                 sortOrder);
 
         // Restore the calling identity.